@@ -3,41 +3,56 @@ package com.twitterbot;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.URLEncoder;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonElement;
 import com.google.gson.annotations.SerializedName;
 import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+import com.twitterbot.AuthenticationHelper.AuthUser;
+import com.twitterbot.SnapshotWriter.CommitFence;
+import com.twitterbot.SnapshotWriter.Snapshot;
+import com.twitterbot.TimelineIngester.TimelineType;
+import com.twitterbot.UserPageIterator.Page;
 
 public class ApiHelper
 {
-    private static final int APP_AUTH_REQUESTS_PER_15_MINUTE_WINDOW = 30;
-
-    private static final int USER_AUTH_REQUESTS_PER_15_MINUTE_WINDOW = 15;
-
-    private static final BlockingQueue<Integer> APP_AUTH_RATE_LIMIT_QUEUE = new LinkedBlockingQueue<>(
-            APP_AUTH_REQUESTS_PER_15_MINUTE_WINDOW);
+    private static final int USERS_LOOKUP_MAX_SCREEN_NAMES = 100;
 
-    private static final BlockingQueue<Integer> USER_AUTH_RATE_LIMIT_QUEUE = new LinkedBlockingQueue<>(
-            USER_AUTH_REQUESTS_PER_15_MINUTE_WINDOW);
+    private static final int PARSE_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
 
-    private static final int MILLISECONDS_UNTIL_RESTART = 15 * 60 * 1000;
+    private static final int PARSE_QUEUE_CAPACITY = 4 * PARSE_THREAD_COUNT;
 
-    static {
-        initializeAppAuthRateLimitQueue();
-        initializeUserAuthRateLimitQueue();
-    }
+    // When the parse queue is full the fetching thread serializes the page itself, which throttles fetching.
+    private static final ExecutorService PARSE_SERVICE = new ThreadPoolExecutor(PARSE_THREAD_COUNT,
+            PARSE_THREAD_COUNT, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(PARSE_QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "page-parser");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
 
-    public enum UserQueryType
+    public enum UserQueryType implements RateLimitedEndpoint
     {
         FOLLOWERS(ApiConfig.getInstance().twitterApiUrl + "followers/list.json", "screen_name=%s&count=%s&cursor=%s",
-                "%s-followers.txt"), FRIENDS(ApiConfig.getInstance().twitterApiUrl + "friends/list.json",
-                        "screen_name=%s&count=%s&cursor=%s", "%s-friends.txt");
+                "%s-followers.txt", "followers", "/followers/list", 30), FRIENDS(
+                        ApiConfig.getInstance().twitterApiUrl + "friends/list.json",
+                        "screen_name=%s&count=%s&cursor=%s", "%s-friends.txt", "friends", "/friends/list", 30);
 
         private final String url;
 
@@ -45,19 +60,62 @@ public class ApiHelper
 
         private final String filenameFormat;
 
-        private UserQueryType(String url, String queryFormat, String filenameFormat)
+        private final String rateLimitResource;
+
+        private final String rateLimitEndpoint;
+
+        private final int requestsPer15MinuteWindow;
+
+        private UserQueryType(String url, String queryFormat, String filenameFormat, String rateLimitResource,
+                String rateLimitEndpoint, int requestsPer15MinuteWindow)
         {
             this.url = url;
             this.queryFormat = queryFormat;
             this.filenameFormat = filenameFormat;
+            this.rateLimitResource = rateLimitResource;
+            this.rateLimitEndpoint = rateLimitEndpoint;
+            this.requestsPer15MinuteWindow = requestsPer15MinuteWindow;
+        }
+
+        public String getFilenameFormat()
+        {
+            return filenameFormat;
+        }
+
+        @Override
+        public String getRateLimitFamily()
+        {
+            return name().toLowerCase();
+        }
+
+        @Override
+        public int getRequestsPer15MinuteWindow()
+        {
+            return requestsPer15MinuteWindow;
+        }
+
+        @Override
+        public String getRateLimitResource()
+        {
+            return rateLimitResource;
+        }
+
+        @Override
+        public String getRateLimitEndpoint()
+        {
+            return rateLimitEndpoint;
         }
     }
 
-    public enum FriendActionType
+    public enum FriendActionType implements RateLimitedEndpoint
     {
-        FOLLOW(ApiConfig.getInstance().twitterApiUrl + "friendships/create.json",
-                "screen_name=%s&follow=true"), UNFOLLOW(ApiConfig.getInstance().twitterApiUrl + "friendships/list.json",
-                        "screen_name=%s&count=%s&cursor=%s");
+        FOLLOW(ApiConfig.getInstance().twitterApiUrl + "friendships/create.json", "screen_name=%s&follow=true"),
+        UNFOLLOW(ApiConfig.getInstance().twitterApiUrl + "friendships/destroy.json", "screen_name=%s");
+
+        // Both actions run with the user's own token and share its budget for changing friendships.
+        private static final String RATE_LIMIT_FAMILY = "friendships";
+
+        private static final int REQUESTS_PER_15_MINUTE_WINDOW = 15;
 
         private final String url;
 
@@ -68,6 +126,73 @@ public class ApiHelper
             this.url = url;
             this.queryFormat = queryFormat;
         }
+
+        @Override
+        public String getRateLimitFamily()
+        {
+            return RATE_LIMIT_FAMILY;
+        }
+
+        @Override
+        public int getRequestsPer15MinuteWindow()
+        {
+            return REQUESTS_PER_15_MINUTE_WINDOW;
+        }
+
+        // Not reported for application-only authentication.
+        @Override
+        public String getRateLimitResource()
+        {
+            return null;
+        }
+
+        @Override
+        public String getRateLimitEndpoint()
+        {
+            return null;
+        }
+    }
+
+    public enum UserLookupType implements RateLimitedEndpoint
+    {
+        SCREEN_NAMES(ApiConfig.getInstance().twitterApiUrl + "users/lookup.json", "screen_name=%s", 300);
+
+        private final String url;
+
+        private final String queryFormat;
+
+        private final int requestsPer15MinuteWindow;
+
+        private UserLookupType(String url, String queryFormat, int requestsPer15MinuteWindow)
+        {
+            this.url = url;
+            this.queryFormat = queryFormat;
+            this.requestsPer15MinuteWindow = requestsPer15MinuteWindow;
+        }
+
+        @Override
+        public String getRateLimitFamily()
+        {
+            return "users-lookup";
+        }
+
+        @Override
+        public int getRequestsPer15MinuteWindow()
+        {
+            return requestsPer15MinuteWindow;
+        }
+
+        @Override
+        public String getRateLimitResource()
+        {
+            return "users";
+        }
+
+        @Override
+        public String getRateLimitEndpoint()
+        {
+            return "/users/lookup";
+        }
     }
 
     public static class ApiConfig
@@ -80,6 +205,28 @@ public class ApiHelper
 
         private static final String DATA_DIRECTORY_PROPERTY = "data.directory";
 
+        private static final String CRAWL_EXPECTED_NODES_PROPERTY = "crawl.expected.nodes";
+
+        private static final String DEFAULT_CRAWL_EXPECTED_NODES = "10000000";
+
+        private static final String DAEMON_REFRESH_MINUTES_PROPERTY = "daemon.refresh.minutes";
+
+        private static final String DEFAULT_DAEMON_REFRESH_MINUTES = "1440";
+
+        private static final String INCREMENTAL_KNOWN_FRACTION_PROPERTY = "incremental.known.fraction";
+
+        private static final String DEFAULT_INCREMENTAL_KNOWN_FRACTION = "0.9";
+
+        private static final String INCREMENTAL_FULL_REFRESH_HOURS_PROPERTY = "incremental.full.refresh.hours";
+
+        private static final String DEFAULT_INCREMENTAL_FULL_REFRESH_HOURS = "168";
+
+        private static final String USER_EXTRA_FIELDS_PROPERTY = "user.extra.fields";
+
+        private static final String DAEMON_TIMELINES_PROPERTY = "daemon.timelines";
+
+        private static final String DEFAULT_DAEMON_TIMELINES = "timeline,mentions";
+
         private static final ApiConfig INSTANCE = new ApiConfig();
 
         public static ApiConfig getInstance()
@@ -93,6 +240,19 @@ public class ApiHelper
 
         public final String dataDirectory;
 
+        public final long crawlExpectedNodes;
+
+        public final int daemonRefreshMinutes;
+
+        public final double incrementalKnownFraction;
+
+        public final int incrementalFullRefreshHours;
+
+        public final List<String> userExtraFields;
+
+        // Names of the timeline types ingested for every tracked account in daemon mode.
+        public final List<String> daemonTimelines;
+
         private ApiConfig()
         {
             try (InputStream in = getClass().getClassLoader().getResourceAsStream(PROPERTIES_FILENAME)) {
@@ -101,10 +261,32 @@ public class ApiHelper
                 this.twitterApiUrl = props.getProperty(TWITTER_API_URL_PROPERTY);
                 this.userQueryCount = Integer.parseInt(props.getProperty(USER_QUERY_COUNT_PROPERTY));
                 this.dataDirectory = props.getProperty(DATA_DIRECTORY_PROPERTY);
+                this.crawlExpectedNodes = Long.parseLong(
+                        props.getProperty(CRAWL_EXPECTED_NODES_PROPERTY, DEFAULT_CRAWL_EXPECTED_NODES));
+                this.daemonRefreshMinutes = Integer.parseInt(
+                        props.getProperty(DAEMON_REFRESH_MINUTES_PROPERTY, DEFAULT_DAEMON_REFRESH_MINUTES));
+                this.incrementalKnownFraction = Double.parseDouble(
+                        props.getProperty(INCREMENTAL_KNOWN_FRACTION_PROPERTY, DEFAULT_INCREMENTAL_KNOWN_FRACTION));
+                this.incrementalFullRefreshHours = Integer.parseInt(props
+                        .getProperty(INCREMENTAL_FULL_REFRESH_HOURS_PROPERTY, DEFAULT_INCREMENTAL_FULL_REFRESH_HOURS));
+                this.userExtraFields = splitList(props.getProperty(USER_EXTRA_FIELDS_PROPERTY, ""));
+                this.daemonTimelines = splitList(
+                        props.getProperty(DAEMON_TIMELINES_PROPERTY, DEFAULT_DAEMON_TIMELINES));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
+
+        private static List<String> splitList(String value)
+        {
+            List<String> items = new ArrayList<>();
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+            return Collections.unmodifiableList(items);
+        }
     }
 
     public static List<User> getFromFile(String screenName, UserQueryType userQueryType) throws IOException
@@ -120,188 +302,300 @@ public class ApiHelper
         return users;
     }
 
-    private static void initializeAppAuthRateLimitQueue()
+    /**
+     * @return every endpoint the bot calls, for seeding their rate limits.
+     */
+    public static List<RateLimitedEndpoint> getRateLimitedEndpoints()
     {
-        for (int i = 1; i <= APP_AUTH_REQUESTS_PER_15_MINUTE_WINDOW; i++) {
-            try {
-                APP_AUTH_RATE_LIMIT_QUEUE.put(i);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        List<RateLimitedEndpoint> endpoints = new ArrayList<>();
+        endpoints.addAll(Arrays.asList(UserQueryType.values()));
+        endpoints.addAll(Arrays.asList(FriendActionType.values()));
+        endpoints.addAll(Arrays.asList(UserLookupType.values()));
+        endpoints.addAll(Arrays.asList(TimelineType.values()));
+        return endpoints;
     }
 
-    private static void initializeUserAuthRateLimitQueue()
+    public static ExecutorService getParseService()
     {
-        for (int i = 1; i <= USER_AUTH_REQUESTS_PER_15_MINUTE_WINDOW; i++) {
+        return PARSE_SERVICE;
+    }
+
+    /**
+     * Looks up the full user objects, including follower and friend counts, for the screen names, 100 per request.
+     */
+    public static List<User> lookupUsers(ApplicationOnlyAuthResponse authResponse, List<String> screenNames)
+            throws IOException, InterruptedException
+    {
+        List<User> users = new ArrayList<>();
+        for (int start = 0; start < screenNames.size(); start += USERS_LOOKUP_MAX_SCREEN_NAMES) {
+            List<String> batch = screenNames.subList(start,
+                    Math.min(screenNames.size(), start + USERS_LOOKUP_MAX_SCREEN_NAMES));
+            RateLimitRegistry.getInstance().get(UserLookupType.SCREEN_NAMES).acquire();
+            HttpURLConnection urlConnection = null;
             try {
-                USER_AUTH_RATE_LIMIT_QUEUE.put(i);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                String query = String.format(UserLookupType.SCREEN_NAMES.queryFormat,
+                        URLEncoder.encode(String.join(",", batch), HttpHelper.HTTP_REQUEST_CHARSET.displayName()));
+                String url = String.format("%s?%s", UserLookupType.SCREEN_NAMES.url, query);
+                urlConnection = HttpHelper.createUrlConnection(url, HttpHelper.createGetDetails(authResponse));
+                String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
+                if (!StringHelper.isNullOrEmpty(responseJson) && responseJson.trim().startsWith("[")) {
+                    users.addAll(Arrays.asList(JsonHelper.objectFromJson(responseJson, User[].class)));
+                }
+            } finally {
+                if (urlConnection != null) {
+                    urlConnection.disconnect();
+                }
             }
         }
+        return users;
     }
 
+    /**
+     * Pages through the users and saves them as a snapshot. The calling thread only fetches and parses pages, with
+     * the next page prefetched while the current one is processed; re-serialization runs on the parse stage, and
+     * the snapshot is written and committed by the {@link SnapshotWriter}. Both hand-offs are bounded, so a slow
+     * stage holds back the ones in front of it.
+     */
     public static List<User> queryAndSaveUsers(ApplicationOnlyAuthResponse authResponse, String screenName,
             UserQueryType userQueryType) throws IOException
     {
-        HttpURLConnection urlConnection = null;
+        return queryAndSaveUsers(authResponse, screenName, userQueryType, false);
+    }
+
+    /**
+     * @param incremental
+     *            whether to stop paging once the pages only contain users from the previous snapshot, and take the
+     *            rest of the list from that snapshot; see {@link IncrementalRefresh}.
+     */
+    public static List<User> queryAndSaveUsers(ApplicationOnlyAuthResponse authResponse, String screenName,
+            UserQueryType userQueryType, boolean incremental) throws IOException
+    {
         List<User> users = new ArrayList<>();
+        return (queryAndSaveUsers(authResponse, screenName, userQueryType, incremental, users::addAll) >= 0)
+                ? users
+                : null;
+    }
+
+    /**
+     * Like {@link #queryAndSaveUsers(ApplicationOnlyAuthResponse, String, UserQueryType, boolean)}, but hands the
+     * users of every page to the consumer, in API order, instead of collecting them, so lists of any size can be
+     * processed as they come in. The consumer is called for one page at a time.
+     *
+     * @return the number of users saved, or -1 if the thread was interrupted.
+     */
+    public static int queryAndSaveUsers(ApplicationOnlyAuthResponse authResponse, String screenName,
+            UserQueryType userQueryType, boolean incremental, Consumer<List<User>> pageConsumer) throws IOException
+    {
+        return queryAndSaveUsers(authResponse, screenName, userQueryType, incremental, pageConsumer, null);
+    }
+
+    /**
+     * Like {@link #queryAndSaveUsers(ApplicationOnlyAuthResponse, String, UserQueryType, boolean, Consumer)}, but
+     * only replaces the previous snapshot if the fence still holds right before the commit.
+     */
+    public static int queryAndSaveUsers(ApplicationOnlyAuthResponse authResponse, String screenName,
+            UserQueryType userQueryType, boolean incremental, Consumer<List<User>> pageConsumer, CommitFence fence)
+            throws IOException
+    {
+        String fileName = String.format(userQueryType.filenameFormat, screenName);
+        Path snapshotPath = Paths.get(ApiConfig.getInstance().dataDirectory, fileName);
+        IncrementalRefresh previousSnapshot = incremental ? IncrementalRefresh.load(snapshotPath) : null;
+        Snapshot snapshot = SnapshotWriter.getInstance().open(snapshotPath, fence);
+        JobProgress progress = JobProgress.get(screenName, userQueryType);
+        // Incremental refreshes decide after every page whether to go on, so a prefetched page could be wasted.
+        UserPageIterator pages = new UserPageIterator(screenName,
+                cursor -> (userQueryType == UserQueryType.FOLLOWERS)
+                        ? getFollowers(authResponse, screenName, cursor)
+                        : getFriends(authResponse, screenName, cursor),
+                RateLimitRegistry.getInstance().get(userQueryType), previousSnapshot == null, progress);
+        AtomicInteger userCount = new AtomicInteger();
+        LongHashSet headIds = new LongHashSet();
+        boolean stoppedEarly = false;
+        progress.start();
+        // Each page is appended only after the previous page, so the snapshot keeps the API order.
+        CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> consumed = CompletableFuture.completedFuture(null);
+        UserQueryResponse lastPage = null;
         try {
-            long cursor = -1;
-            boolean endOfUsers = false;
-            do {
-                try {
-                    Logging.logToConsole(screenName + " - getting token");
-                    int currentRequestNumber = APP_AUTH_RATE_LIMIT_QUEUE.take();
-                    Logging.logToConsole(
-                            String.format("%s - current request number %d", screenName, currentRequestNumber));
-                    Logging.logToConsole(screenName + " - running query");
-                    UserQueryResponse result = (userQueryType == UserQueryType.FOLLOWERS)
-                            ? getFollowers(authResponse, screenName, cursor)
-                            : getFriends(authResponse, screenName, cursor);
-                    if (result != null) {
-                        cursor = result.nextCursor;
-                        users.addAll(result.users);
+            while (pages.hasNext() && !stoppedEarly) {
+                Page page = pages.next();
+                String responseJson = page.responseJson;
+                // HttpHelper answers a failed request with an empty response.
+                if (StringHelper.isNullOrEmpty(responseJson)) {
+                    throw new IOException(String.format("%s - request for page %d failed", screenName,
+                            progress.getPagesFetched() + 1));
+                }
+                progress.recordPage(page.nextCursor);
+                UserQueryResponse result = page.result;
+                if (result != null && result.users != null) {
+                    progress.recordUsers(result.users.size());
+                }
+                CompletableFuture<List<String>> serialized = CompletableFuture.supplyAsync(() -> usersToJson(result),
+                        PARSE_SERVICE);
+                written = written.thenCombine(serialized, (previous, usersJson) -> usersJson)
+                        .thenAccept(usersJson -> appendToSnapshot(snapshot, usersJson));
+                consumed = consumed.thenRunAsync(() -> {
+                    if (result != null && result.users != null) {
+                        userCount.addAndGet(result.users.size());
+                        pageConsumer.accept(result.users);
                     }
-                    // If the request was the last one in the rate limit queue, wait 
-                    // for the current rate limit window to end and then reset the 
-                    // rate limit queue before proceeding.
-                    if (currentRequestNumber == APP_AUTH_REQUESTS_PER_15_MINUTE_WINDOW) {
-                        Thread.sleep(MILLISECONDS_UNTIL_RESTART);
-                        initializeAppAuthRateLimitQueue();
+                }, PARSE_SERVICE);
+                lastPage = result;
+                if (previousSnapshot != null && result != null && result.users != null) {
+                    for (User user : result.users) {
+                        headIds.add(user.id);
                     }
-                    endOfUsers = result == null || result.nextCursor == 0;
-                } catch (InterruptedException e) {
-                    return null;
+                    stoppedEarly = previousSnapshot.isMostlyKnown(result.users);
                 }
-            } while (!endOfUsers);
-            List<String> usersJson = new ArrayList<>();
-            for (User user : users) {
-                usersJson.add(JsonHelper.objectToJson(user));
             }
-            String fileName = String.format(userQueryType.filenameFormat, screenName);
-            Files.write(Paths.get(ApiConfig.getInstance().dataDirectory, fileName), usersJson,
-                    HttpHelper.HTTP_REQUEST_CHARSET);
+            written.join();
+            consumed.join();
+            // An error response has no next cursor either, so paging also ends on one; only a last page that parsed
+            // as a user list without a next cursor proves the list is complete.
+            if (!stoppedEarly && (lastPage == null || lastPage.users == null || lastPage.nextCursor != 0)) {
+                throw new IOException(String.format(
+                        "%s - paging ended on page %d without reaching the end of the list", screenName,
+                        progress.getPagesFetched()));
+            }
+            if (stoppedEarly) {
+                List<User> tailUsers = previousSnapshot.appendTail(snapshot, headIds);
+                userCount.addAndGet(tailUsers.size());
+                pageConsumer.accept(tailUsers);
+                Logging.logToConsole(String.format("%s - stopped after %d pages, kept %d users from the last snapshot",
+                        screenName, progress.getPagesFetched(), tailUsers.size()));
+            }
+            SnapshotWriter.getInstance().commit(snapshot).join();
+            SnapshotIndex.getInstance().updateLater(snapshotPath);
+            if (!stoppedEarly) {
+                IncrementalRefresh.recordFullRefresh(snapshotPath);
+            }
+        } catch (InterruptedException e) {
+            abortSnapshot(snapshot, written);
+            progress.finish(false);
+            return -1;
+        } catch (IOException e) {
+            abortSnapshot(snapshot, written);
+            progress.finish(false);
+            throw e;
+        } catch (CompletionException e) {
+            abortSnapshot(snapshot, written);
+            progress.finish(false);
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            pages.close();
+        }
+        progress.finish(true);
+        return userCount.get();
+    }
+
+    private static List<String> usersToJson(UserQueryResponse result)
+    {
+        List<String> usersJson = new ArrayList<>();
+        if (result != null && result.users != null) {
+            for (User user : result.users) {
+                usersJson.add(JsonHelper.objectToJson(user));
             }
         }
-        return users;
+        return usersJson;
+    }
+
+    private static void appendToSnapshot(Snapshot snapshot, List<String> usersJson)
+    {
+        try {
+            SnapshotWriter.getInstance().append(snapshot, usersJson);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
     }
-    
-    private static UserQueryResponse getFollowers(ApplicationOnlyAuthResponse authResponse, String screenName,
-            long cursor)
+
+    private static void abortSnapshot(Snapshot snapshot, CompletableFuture<Void> written)
+    {
+        // Wait for any page still on its way to the writer before throwing the temporary file away.
+        written.handle((result, failure) -> {
+            try {
+                SnapshotWriter.getInstance().abort(snapshot);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+    }
+
+    private static String getFollowers(ApplicationOnlyAuthResponse authResponse, String screenName, long cursor)
     {
-        UserQueryResponse result = null;
         HttpURLConnection urlConnection = null;
         try {
             String query = String.format(UserQueryType.FOLLOWERS.queryFormat, screenName,
                     ApiConfig.getInstance().userQueryCount, cursor);
             String url = String.format("%s?%s", UserQueryType.FOLLOWERS.url, query);
             urlConnection = HttpHelper.createUrlConnection(url, HttpHelper.createGetDetails(authResponse));
-            String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
-            if (!StringHelper.isNullOrEmpty(responseJson)) {
-                result = JsonHelper.objectFromJson(responseJson, UserQueryResponse.class);
-            }
+            return HttpHelper.getResponseStringFromUrlConnection(urlConnection);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
         }
-        return result;
     }
 
-    private static UserQueryResponse getFriends(ApplicationOnlyAuthResponse authResponse, String screenName, long cursor)
+    private static String getFriends(ApplicationOnlyAuthResponse authResponse, String screenName, long cursor)
     {
-        UserQueryResponse result = null;
         HttpURLConnection urlConnection = null;
         try {
             String query = String.format(UserQueryType.FRIENDS.queryFormat, screenName,
                     ApiConfig.getInstance().userQueryCount, cursor);
             String url = String.format("%s?%s", UserQueryType.FRIENDS.url, query);
             urlConnection = HttpHelper.createUrlConnection(url, HttpHelper.createGetDetails(authResponse));
-            String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
-            if (!StringHelper.isNullOrEmpty(responseJson)) {
-                result = JsonHelper.objectFromJson(responseJson, UserQueryResponse.class);
-            }
+            return HttpHelper.getResponseStringFromUrlConnection(urlConnection);
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
         }
-        return result;
     }
 
-    public static void changeFriendStatus(ApplicationOnlyAuthResponse authResponse, String screenName,
-            FriendActionType friendActionType) throws IOException
+    /**
+     * Follows or unfollows the screen name as the authenticated user. Changing friendships acts on behalf of the
+     * user, so the call is signed with the user's access token rather than the application-only bearer token. The
+     * request is built before a permit is taken, and signed only after, so its timestamp does not age while waiting
+     * for the rate limit.
+     */
+    public static void changeFriendStatus(String screenName, FriendActionType friendActionType)
+            throws IOException, InterruptedException
     {
-        HttpURLConnection urlConnection = null;
-        try {
-            try {
-                String actionAndScreenName = String.format("%s %s", friendActionType.toString(), screenName);
-                Logging.logToConsole(actionAndScreenName + " - getting token");
-                int currentRequestNumber = USER_AUTH_RATE_LIMIT_QUEUE.take();
-                Logging.logToConsole(actionAndScreenName + " - current request number: " + currentRequestNumber);
-                Logging.logToConsole(actionAndScreenName + " - changing friend status");
-                UserQueryResponse result = (friendActionType == FriendActionType.FOLLOW)
-                        ? follow(authResponse, screenName)
-                        : unfollow(authResponse, screenName);
-                // If the request was the last one in the rate limit queue, wait 
-                // for the current rate limit window to end and then reset the 
-                // rate limit queue before proceeding.
-                if (currentRequestNumber == USER_AUTH_REQUESTS_PER_15_MINUTE_WINDOW) {
-                    Thread.sleep(MILLISECONDS_UNTIL_RESTART);
-                    initializeUserAuthRateLimitQueue();
-                }
-            } catch (InterruptedException e) {
-            }
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+        AuthUser authUser = AuthUser.getInstance();
+        if (StringHelper.isNullOrEmpty(authUser.accessToken)
+                || StringHelper.isNullOrEmpty(authUser.accessTokenSecret)) {
+            throw new IOException("Changing friendships needs access.token and access.token.secret in "
+                    + "authuser.properties");
         }
-    }
-
-    private static UserQueryResponse follow(ApplicationOnlyAuthResponse authResponse, String screenName)
-    {
-        UserQueryResponse result = null;
-        HttpURLConnection urlConnection = null;
+        String body = String.format(friendActionType.queryFormat, AuthenticationHelper.percentEncode(screenName));
+        String actionAndScreenName = String.format("%s %s", friendActionType.toString(), screenName);
+        Logging.logToConsole(actionAndScreenName + " - getting token");
+        int currentRequestNumber = RateLimitRegistry.getInstance().get(friendActionType).acquire();
+        Logging.logToConsole(actionAndScreenName + " - current request number: " + currentRequestNumber);
+        Logging.logToConsole(actionAndScreenName + " - changing friend status");
+        String authHeader;
         try {
-            String query = String.format(FriendActionType.FOLLOW.queryFormat, screenName);
-            String url = String.format("%s?%s", FriendActionType.FOLLOW.url, query);
-            urlConnection = HttpHelper.createUrlConnection(url, HttpHelper.createPostDetails(authResponse));
-            String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
-            if (!StringHelper.isNullOrEmpty(responseJson)) {
-                result = JsonHelper.objectFromJson(responseJson, UserQueryResponse.class);
-            }
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+            authHeader = AuthenticationHelper.getOathAuthorizationHeader(HttpHelper.HTTP_POST_REQUEST_METHOD,
+                    friendActionType.url, body);
+        } catch (Exception e) {
+            throw new IOException(actionAndScreenName + " - signing failed", e);
         }
-        return result;
-    }
-
-    private static UserQueryResponse unfollow(ApplicationOnlyAuthResponse authResponse, String screenName)
-    {
-        UserQueryResponse result = null;
         HttpURLConnection urlConnection = null;
         try {
-            String query = String.format(FriendActionType.UNFOLLOW.queryFormat, screenName);
-            String url = String.format("%s?%s", FriendActionType.UNFOLLOW.url, query);
-            urlConnection = HttpHelper.createUrlConnection(url, HttpHelper.createPostDetails(authResponse));
+            urlConnection = HttpHelper.createUrlConnection(friendActionType.url,
+                    HttpHelper.createAuthRequest(authHeader));
+            HttpHelper.sendRequestToUrlConnection(urlConnection, body.getBytes(HttpHelper.HTTP_REQUEST_CHARSET));
             String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
-            if (!StringHelper.isNullOrEmpty(responseJson)) {
-                result = JsonHelper.objectFromJson(responseJson, UserQueryResponse.class);
+            if (StringHelper.isNullOrEmpty(responseJson)) {
+                throw new IOException(actionAndScreenName + " - no response");
             }
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
         }
-        return result;
     }
 
     public static class User
@@ -317,9 +611,20 @@ public class ApiHelper
 
         @SerializedName("location")
         public String location;
+
+        @SerializedName("followers_count")
+        public int followersCount;
+
+        @SerializedName("friends_count")
+        public int friendsCount;
+
+        /**
+         * The fields named in user.extra.fields, if the user has them; null otherwise.
+         */
+        public Map<String, JsonElement> extraFields;
     }
 
-    private static class UserQueryResponse
+    static class UserQueryResponse
     {
         @SerializedName("previous_cursor")
         public long previousCursor;
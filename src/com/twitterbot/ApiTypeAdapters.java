@@ -0,0 +1,262 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.twitterbot.ApiHelper.User;
+import com.twitterbot.ApiHelper.UserQueryResponse;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+
+/**
+ * Streaming adapters for the API responses read on every page. They read the few fields the bot uses straight off
+ * the token stream and skip everything else, including the nested status of every user, without reflection.
+ * Extra user fields can be kept by naming them; they are read as JSON trees into {@link User#extraFields} and
+ * written back to the snapshots, so users of the other fields pay nothing for them.
+ */
+public class ApiTypeAdapters implements TypeAdapterFactory
+{
+    private final Set<String> extraUserFields;
+
+    public ApiTypeAdapters(Collection<String> extraUserFields)
+    {
+        this.extraUserFields = new HashSet<>(extraUserFields);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type)
+    {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == User.class) {
+            return (TypeAdapter<T>) new UserAdapter(gson.getAdapter(JsonElement.class), extraUserFields);
+        } else if (rawType == UserQueryResponse.class) {
+            return (TypeAdapter<T>) new UserQueryResponseAdapter(gson.getAdapter(User.class));
+        } else if (rawType == ApplicationOnlyAuthResponse.class) {
+            return (TypeAdapter<T>) new ApplicationOnlyAuthResponseAdapter();
+        }
+        return null;
+    }
+
+    private static String nextStringOrNull(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static long nextLongOrZero(JsonReader in) throws IOException
+    {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0;
+        }
+        return in.nextLong();
+    }
+
+    private static class UserAdapter extends TypeAdapter<User>
+    {
+        private final TypeAdapter<JsonElement> jsonElementAdapter;
+
+        private final Set<String> extraFields;
+
+        UserAdapter(TypeAdapter<JsonElement> jsonElementAdapter, Set<String> extraFields)
+        {
+            this.jsonElementAdapter = jsonElementAdapter;
+            this.extraFields = extraFields;
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException
+        {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            User user = new User();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                switch (name) {
+                case "id":
+                    user.id = nextLongOrZero(in);
+                    break;
+                case "name":
+                    user.name = nextStringOrNull(in);
+                    break;
+                case "screen_name":
+                    user.screenName = nextStringOrNull(in);
+                    break;
+                case "location":
+                    user.location = nextStringOrNull(in);
+                    break;
+                case "followers_count":
+                    user.followersCount = (int) nextLongOrZero(in);
+                    break;
+                case "friends_count":
+                    user.friendsCount = (int) nextLongOrZero(in);
+                    break;
+                default:
+                    if (!extraFields.isEmpty() && extraFields.contains(name)) {
+                        if (user.extraFields == null) {
+                            user.extraFields = new LinkedHashMap<>();
+                        }
+                        user.extraFields.put(name, jsonElementAdapter.read(in));
+                    } else {
+                        in.skipValue();
+                    }
+                }
+            }
+            in.endObject();
+            return user;
+        }
+
+        @Override
+        public void write(JsonWriter out, User user) throws IOException
+        {
+            if (user == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(user.id);
+            out.name("name").value(user.name);
+            out.name("screen_name").value(user.screenName);
+            out.name("location").value(user.location);
+            out.name("followers_count").value(user.followersCount);
+            out.name("friends_count").value(user.friendsCount);
+            if (user.extraFields != null) {
+                for (Map.Entry<String, JsonElement> field : user.extraFields.entrySet()) {
+                    out.name(field.getKey());
+                    jsonElementAdapter.write(out, field.getValue());
+                }
+            }
+            out.endObject();
+        }
+    }
+
+    private static class UserQueryResponseAdapter extends TypeAdapter<UserQueryResponse>
+    {
+        private final TypeAdapter<User> userAdapter;
+
+        UserQueryResponseAdapter(TypeAdapter<User> userAdapter)
+        {
+            this.userAdapter = userAdapter;
+        }
+
+        @Override
+        public UserQueryResponse read(JsonReader in) throws IOException
+        {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            UserQueryResponse response = new UserQueryResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                case "previous_cursor":
+                    response.previousCursor = nextLongOrZero(in);
+                    break;
+                case "next_cursor":
+                    response.nextCursor = nextLongOrZero(in);
+                    break;
+                case "users":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        break;
+                    }
+                    List<User> users = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        users.add(userAdapter.read(in));
+                    }
+                    in.endArray();
+                    response.users = users;
+                    break;
+                default:
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+
+        @Override
+        public void write(JsonWriter out, UserQueryResponse response) throws IOException
+        {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("previous_cursor").value(response.previousCursor);
+            out.name("next_cursor").value(response.nextCursor);
+            if (response.users != null) {
+                out.name("users");
+                out.beginArray();
+                for (User user : response.users) {
+                    userAdapter.write(out, user);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+    }
+
+    private static class ApplicationOnlyAuthResponseAdapter extends TypeAdapter<ApplicationOnlyAuthResponse>
+    {
+        @Override
+        public ApplicationOnlyAuthResponse read(JsonReader in) throws IOException
+        {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            ApplicationOnlyAuthResponse response = new ApplicationOnlyAuthResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                case "token_type":
+                    response.tokenTypeStr = nextStringOrNull(in);
+                    break;
+                case "access_token":
+                    response.accessToken = nextStringOrNull(in);
+                    break;
+                default:
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApplicationOnlyAuthResponse response) throws IOException
+        {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("token_type").value(response.tokenTypeStr);
+            out.name("access_token").value(response.accessToken);
+            out.endObject();
+        }
+    }
+}
@@ -15,15 +15,65 @@ public class ArgumentParsing
             usage.append("Usage: <exe>\n");
             usage.append("\t--initial\n");
             usage.append("\t--query=<screen name1, screen name2, etc>\n");
-            usage.append("\t(NOT YET SUPPORTED) --follow=<screen name1, screen name2, etc>\n");
-            usage.append("\t(NOT YET SUPPORTED) --unfollow=<screen name1, screen name2, etc>");
+            usage.append("\t--query-file=<file, or - for standard input> "
+                    + "(screen names separated by newlines or commas)\n");
+            usage.append("\t--incremental (only fetches the new head of lists that have a previous snapshot)\n");
+            usage.append("\t--plan (only prints the estimated pages and ETA of the --query screen names)\n");
+            usage.append("\t--crawl=<depth> (crawls the follower graph starting from the --query screen names)\n");
+            usage.append("\t--track=<screen name1, screen name2, etc>\n");
+            usage.append("\t--untrack=<screen name1, screen name2, etc>\n");
+            usage.append("\t--refresh-minutes=<minutes> (refresh interval for the --track screen names)\n");
+            usage.append("\t--daemon\n");
+            usage.append("\t--worker=<run id> (shares the --query screen names with other workers of the same run)\n");
+            usage.append("\t--status=<port> (serves the live status as JSON at http://localhost:<port>/status)\n");
+            usage.append("\t--timeline=<screen name1, screen name2, etc> "
+                    + "(saves the new tweets of the screen names)\n");
+            usage.append("\t--mentions=<screen name1, screen name2, etc> (saves the new tweets mentioning them)\n");
+            usage.append("\t--backfill-pages=<pages> (also saves older tweets, up to this many pages)\n");
+            usage.append("\t--search-location=<text> (searches the saved snapshots, no API calls)\n");
+            usage.append("\t--search-name=<text>\n");
+            usage.append("\t--search-prefix=<screen name prefix>\n");
+            usage.append("\t--search-account=<screen name> (limits the search to the snapshots of one account)\n");
+            usage.append("\t--follow=<screen name1, screen name2, etc> (follows their saved followers)\n");
+            usage.append("\t--unfollow=<screen name1, screen name2, etc> (unfollows their saved followers)");
             System.out.println(usage.toString());
             return null;
         }
         boolean runQueryForInitialData = false;
         Pattern queryPattern = Pattern.compile("--query=(.*)");
+        Pattern queryFilePattern = Pattern.compile("--query-file=(.+)");
+        String queryFile = null;
         Pattern followPattern = Pattern.compile("--follow=(.*)");
         Pattern unfollowPattern = Pattern.compile("--unfollow=(.*)");
+        Pattern crawlPattern = Pattern.compile("--crawl=(\\d+)");
+        int crawlDepth = 0;
+        Pattern trackPattern = Pattern.compile("--track=(.*)");
+        Pattern untrackPattern = Pattern.compile("--untrack=(.*)");
+        Pattern refreshMinutesPattern = Pattern.compile("--refresh-minutes=(\\d+)");
+        boolean runDaemon = false;
+        boolean planOnly = false;
+        boolean incremental = false;
+        int refreshIntervalMinutes = 0;
+        List<String> screenNamesToTrack = new ArrayList<>();
+        List<String> screenNamesToUntrack = new ArrayList<>();
+        Pattern workerPattern = Pattern.compile("--worker=(\\w[\\w.-]*)");
+        String workerRunId = null;
+        Pattern timelinePattern = Pattern.compile("--timeline=(.*)");
+        Pattern mentionsPattern = Pattern.compile("--mentions=(.*)");
+        Pattern backfillPagesPattern = Pattern.compile("--backfill-pages=(\\d+)");
+        List<String> screenNamesForTimeline = new ArrayList<>();
+        List<String> screenNamesForMentions = new ArrayList<>();
+        int backfillPages = 0;
+        Pattern statusPattern = Pattern.compile("--status=(\\d+)");
+        int statusPort = 0;
+        Pattern searchLocationPattern = Pattern.compile("--search-location=(.*)");
+        Pattern searchNamePattern = Pattern.compile("--search-name=(.*)");
+        Pattern searchPrefixPattern = Pattern.compile("--search-prefix=(.*)");
+        Pattern searchAccountPattern = Pattern.compile("--search-account=(.*)");
+        String searchLocation = null;
+        String searchName = null;
+        String searchPrefix = null;
+        String searchAccount = null;
         List<String> screenNamesToQueryForFollowers = new ArrayList<>();
         List<String> screenNamesToFollow = new ArrayList<>();
         List<String> screenNamesToUnfollow = new ArrayList<>();
@@ -31,31 +81,77 @@ public class ArgumentParsing
             String argument = arguments[argIndex];
             if (!StringHelper.isNullOrEmpty(argument)) {
                 Matcher queryMatcher = queryPattern.matcher(argument);
+                Matcher queryFileMatcher = queryFilePattern.matcher(argument);
                 Matcher followMatcher = followPattern.matcher(argument);
                 Matcher unfollowMatcher = unfollowPattern.matcher(argument);
+                Matcher crawlMatcher = crawlPattern.matcher(argument);
+                Matcher trackMatcher = trackPattern.matcher(argument);
+                Matcher untrackMatcher = untrackPattern.matcher(argument);
+                Matcher refreshMinutesMatcher = refreshMinutesPattern.matcher(argument);
+                Matcher workerMatcher = workerPattern.matcher(argument);
+                Matcher statusMatcher = statusPattern.matcher(argument);
+                Matcher timelineMatcher = timelinePattern.matcher(argument);
+                Matcher mentionsMatcher = mentionsPattern.matcher(argument);
+                Matcher backfillPagesMatcher = backfillPagesPattern.matcher(argument);
+                Matcher searchLocationMatcher = searchLocationPattern.matcher(argument);
+                Matcher searchNameMatcher = searchNamePattern.matcher(argument);
+                Matcher searchPrefixMatcher = searchPrefixPattern.matcher(argument);
+                Matcher searchAccountMatcher = searchAccountPattern.matcher(argument);
                 if (argument.equals("--initial")) {
                     runQueryForInitialData = true;
                 } else if (queryMatcher.matches()) {
                     String allScreenNames = queryMatcher.group(1);
                     String[] screenNames = allScreenNames.split(",");
                     screenNamesToQueryForFollowers.addAll(Arrays.asList(screenNames));
+                } else if (queryFileMatcher.matches()) {
+                    queryFile = queryFileMatcher.group(1);
+                } else if (crawlMatcher.matches()) {
+                    crawlDepth = Integer.parseInt(crawlMatcher.group(1));
+                } else if (argument.equals("--daemon")) {
+                    runDaemon = true;
+                } else if (argument.equals("--plan")) {
+                    planOnly = true;
+                } else if (argument.equals("--incremental")) {
+                    incremental = true;
+                } else if (trackMatcher.matches()) {
+                    screenNamesToTrack.addAll(Arrays.asList(trackMatcher.group(1).split(",")));
+                } else if (untrackMatcher.matches()) {
+                    screenNamesToUntrack.addAll(Arrays.asList(untrackMatcher.group(1).split(",")));
+                } else if (refreshMinutesMatcher.matches()) {
+                    refreshIntervalMinutes = Integer.parseInt(refreshMinutesMatcher.group(1));
+                } else if (workerMatcher.matches()) {
+                    workerRunId = workerMatcher.group(1);
+                } else if (statusMatcher.matches()) {
+                    statusPort = Integer.parseInt(statusMatcher.group(1));
+                } else if (timelineMatcher.matches()) {
+                    screenNamesForTimeline.addAll(Arrays.asList(timelineMatcher.group(1).split(",")));
+                } else if (mentionsMatcher.matches()) {
+                    screenNamesForMentions.addAll(Arrays.asList(mentionsMatcher.group(1).split(",")));
+                } else if (backfillPagesMatcher.matches()) {
+                    backfillPages = Integer.parseInt(backfillPagesMatcher.group(1));
+                } else if (searchLocationMatcher.matches()) {
+                    searchLocation = searchLocationMatcher.group(1);
+                } else if (searchNameMatcher.matches()) {
+                    searchName = searchNameMatcher.group(1);
+                } else if (searchPrefixMatcher.matches()) {
+                    searchPrefix = searchPrefixMatcher.group(1);
+                } else if (searchAccountMatcher.matches()) {
+                    searchAccount = searchAccountMatcher.group(1);
                 } else if (followMatcher.matches()) {
                     String allScreenNames = followMatcher.group(1);
                     String[] screenNames = allScreenNames.split(",");
                     screenNamesToFollow.addAll(Arrays.asList(screenNames));
-                    Logging.logToConsole("This option is not yet supported");
-                    return null;
                 } else if (unfollowMatcher.matches()) {
                     String allScreenNames = unfollowMatcher.group(1);
                     String[] screenNames = allScreenNames.split(",");
                     screenNamesToUnfollow.addAll(Arrays.asList(screenNames));
-                    Logging.logToConsole("This option is not yet supported");
-                    return null;
                 }
             }
         }
         return new ParsedArguments(runQueryForInitialData, screenNamesToQueryForFollowers, screenNamesToFollow,
-                screenNamesToUnfollow);
+                screenNamesToUnfollow, crawlDepth, runDaemon, screenNamesToTrack, screenNamesToUntrack,
+                refreshIntervalMinutes, workerRunId, planOnly, incremental, searchLocation, searchName, searchPrefix,
+                searchAccount, statusPort, queryFile, screenNamesForTimeline, screenNamesForMentions, backfillPages);
     }
 
     static class ParsedArguments
@@ -68,13 +164,79 @@ public class ArgumentParsing
 
         final List<String> screenNamesToUnfollowFollowers;
 
+        final int crawlDepth;
+
+        final boolean runDaemon;
+
+        final List<String> screenNamesToTrack;
+
+        final List<String> screenNamesToUntrack;
+
+        final int refreshIntervalMinutes;
+
+        final String workerRunId;
+
+        final boolean planOnly;
+
+        final boolean incremental;
+
+        final String searchLocation;
+
+        final String searchName;
+
+        final String searchPrefix;
+
+        final String searchAccount;
+
+        final int statusPort;
+
+        final String queryFile;
+
+        final List<String> screenNamesForTimeline;
+
+        final List<String> screenNamesForMentions;
+
+        final int backfillPages;
+
         ParsedArguments(boolean runQueryForInitialData, List<String> screenNamesToQueryForFollowers,
-                List<String> screenNamesToFollowFollowers, List<String> screenNamesToUnfollowFollowers)
+                List<String> screenNamesToFollowFollowers, List<String> screenNamesToUnfollowFollowers,
+                int crawlDepth, boolean runDaemon, List<String> screenNamesToTrack, List<String> screenNamesToUntrack,
+                int refreshIntervalMinutes, String workerRunId, boolean planOnly, boolean incremental,
+                String searchLocation, String searchName, String searchPrefix, String searchAccount, int statusPort,
+                String queryFile, List<String> screenNamesForTimeline, List<String> screenNamesForMentions,
+                int backfillPages)
         {
             this.runQueryForInitialData = runQueryForInitialData;
             this.screenNamesToQueryForFollowers = screenNamesToQueryForFollowers;
             this.screenNamesToFollowFollowers = screenNamesToFollowFollowers;
             this.screenNamesToUnfollowFollowers = screenNamesToUnfollowFollowers;
+            this.crawlDepth = crawlDepth;
+            this.runDaemon = runDaemon;
+            this.screenNamesToTrack = screenNamesToTrack;
+            this.screenNamesToUntrack = screenNamesToUntrack;
+            this.refreshIntervalMinutes = refreshIntervalMinutes;
+            this.workerRunId = workerRunId;
+            this.planOnly = planOnly;
+            this.incremental = incremental;
+            this.searchLocation = searchLocation;
+            this.searchName = searchName;
+            this.searchPrefix = searchPrefix;
+            this.searchAccount = searchAccount;
+            this.statusPort = statusPort;
+            this.queryFile = queryFile;
+            this.screenNamesForTimeline = screenNamesForTimeline;
+            this.screenNamesForMentions = screenNamesForMentions;
+            this.backfillPages = backfillPages;
+        }
+
+        boolean isTimelineIngestion()
+        {
+            return !screenNamesForTimeline.isEmpty() || !screenNamesForMentions.isEmpty();
+        }
+
+        boolean isSearch()
+        {
+            return searchLocation != null || searchName != null || searchPrefix != null;
         }
     }
 }
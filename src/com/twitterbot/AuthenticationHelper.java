@@ -2,11 +2,16 @@ package com.twitterbot;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.util.Base64;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.RandomStringUtils;
 
@@ -96,7 +101,9 @@ public class AuthenticationHelper
 
     private static final String BEARER_TOKEN_CREDENTIAL_FORMAT = "%s:%s";
 
-    private static final AtomicReference<String> OATH_SIGNATURE = new AtomicReference<>();
+    private static final String OATH_SIGNATURE_BASE_FORMAT = "%s&%s&%s";
+
+    private static final String OATH_SIGNING_KEY_FORMAT = "%s&%s";
 
     private static String getBase64EBearerToken() throws Exception
     {
@@ -129,16 +136,48 @@ public class AuthenticationHelper
         return RandomStringUtils.randomAlphanumeric(32);
     }
 
-    public static String getOathAuthorizationHeader() throws Exception
+    /**
+     * Percent-encodes a value the way OAuth 1.0a signs it (RFC 3986), which differs from form encoding for spaces,
+     * asterisks and tildes.
+     */
+    public static String percentEncode(String value) throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode(value, HttpHelper.HTTP_REQUEST_CHARSET.displayName()).replace("+", "%20")
+                .replace("*", "%2A").replace("%7E", "~");
+    }
+
+    /**
+     * Signs a request as the authenticated user (OAuth 1.0a with the user's access token), which calls that act on
+     * behalf of the user need instead of the application-only bearer token. The form body must already be
+     * percent-encoded.
+     */
+    public static String getOathAuthorizationHeader(String method, String url, String encodedBody) throws Exception
     {
         AuthUser authUser = AuthUser.getInstance();
-        OATH_SIGNATURE.compareAndSet(null,
-                HmacSignatureHelper.calculateRFC2104HMAC(authUser.consumerKey, authUser.consumerSecret));
         String nonce = getNonce();
-        String timestamp = Long.toString(System.currentTimeMillis());
-        String base64BearerTokenCredentials = getBase64EBearerToken();
-        return String.format(OATH_AUTHORIZATION_HEADER_FORMAT, authUser.consumerKey, nonce, OATH_SIGNATURE.get(),
-                timestamp, base64BearerTokenCredentials);
+        String timestamp = Long.toString(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        SortedMap<String, String> parameters = new TreeMap<>();
+        for (String pair : encodedBody.split("&")) {
+            int separator = pair.indexOf('=');
+            parameters.put(pair.substring(0, separator), pair.substring(separator + 1));
+        }
+        parameters.put("oauth_consumer_key", percentEncode(authUser.consumerKey));
+        parameters.put("oauth_nonce", nonce);
+        parameters.put("oauth_signature_method", "HMAC-SHA1");
+        parameters.put("oauth_timestamp", timestamp);
+        parameters.put("oauth_token", percentEncode(authUser.accessToken));
+        parameters.put("oauth_version", "1.0");
+        StringJoiner parameterString = new StringJoiner("&");
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            parameterString.add(parameter.getKey() + "=" + parameter.getValue());
+        }
+        String signatureBase = String.format(OATH_SIGNATURE_BASE_FORMAT, method, percentEncode(url),
+                percentEncode(parameterString.toString()));
+        String signingKey = String.format(OATH_SIGNING_KEY_FORMAT, percentEncode(authUser.consumerSecret),
+                percentEncode(authUser.accessTokenSecret));
+        String signature = HmacSignatureHelper.calculateRFC2104HMAC(signatureBase, signingKey);
+        return String.format(OATH_AUTHORIZATION_HEADER_FORMAT, percentEncode(authUser.consumerKey), nonce,
+                percentEncode(signature), timestamp, percentEncode(authUser.accessToken));
     }
 
     public static ApplicationOnlyAuthResponse callAuthorizationService(String authHeader)
@@ -0,0 +1,65 @@
+package com.twitterbot;
+
+public class BloomFilter
+{
+    private static final double LN_2 = Math.log(2);
+
+    private final long[] bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate)
+    {
+        long optimalBitCount = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (LN_2 * LN_2));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBitCount + 63) >>> 6));
+        this.bits = new long[wordCount];
+        this.bitCount = (long) wordCount << 6;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / Math.max(1, expectedInsertions) * LN_2));
+    }
+
+    public boolean mightContain(long value)
+    {
+        long hash1 = mix(value);
+        long hash2 = mix(hash1);
+        for (int i = 0; i < hashCount; i++) {
+            long bitIndex = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            if ((bits[(int) (bitIndex >>> 6)] & (1L << bitIndex)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the value to the filter.
+     * 
+     * @return true if the value was definitely not present before this call.
+     */
+    public boolean put(long value)
+    {
+        long hash1 = mix(value);
+        long hash2 = mix(hash1);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bitIndex = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+            int wordIndex = (int) (bitIndex >>> 6);
+            long mask = 1L << bitIndex;
+            if ((bits[wordIndex] & mask) == 0) {
+                bits[wordIndex] |= mask;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    static long mix(long value)
+    {
+        // SplitMix64 finalizer.
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,25 +1,45 @@
 package com.twitterbot;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.twitterbot.ApiHelper.ApiConfig;
 import com.twitterbot.ApiHelper.FriendActionType;
-import com.twitterbot.ApiHelper.User;
 import com.twitterbot.ApiHelper.UserQueryType;
 import com.twitterbot.ArgumentParsing.ParsedArguments;
 import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
 import com.twitterbot.AuthenticationHelper.AuthUser;
 import com.twitterbot.AuthenticationHelper.TokenType;
+import com.twitterbot.SnapshotIndex.Field;
+import com.twitterbot.SnapshotIndex.SearchResult;
+import com.twitterbot.TimelineIngester.TimelineType;
 
 public class Bot
 {
     private static final String APP_DESCRIPTION = "TwitterBot";
 
-    private static final int THREAD_COUNT = 25;
+    static final int THREAD_COUNT = 25;
+
+    // Jobs streamed from a --query-file wait for a permit, and followers read from snapshots for a queue slot, so at
+    // most this many are queued or running at a time.
+    private static final int MAX_QUEUED_STREAMED_JOBS = 2 * THREAD_COUNT;
+
+    private static final String COORDINATION_DIRECTORY = "coordination";
+
+    private static final String RATE_LIMIT_DIRECTORY = "ratelimit";
 
     private static final ExecutorService USER_SERVICE = Executors.newFixedThreadPool(THREAD_COUNT);
 
@@ -31,75 +51,277 @@ public class Bot
         if (parsedArguments == null) {
             return;
         }
+        if (parsedArguments.isSearch()) {
+            search(parsedArguments);
+            return;
+        }
         Logging.logToConsole("Starting " + APP_DESCRIPTION);
-        AuthUser authUser = AuthUser.getInstance();
-        Logging.logToConsole("Authentication user screen name: " + authUser.screenName);
-        String authHeader = AuthenticationHelper.getApplicationOnlyAuthorizationHeader();
-        Logging.logToConsole("Auth header: " + authHeader);
-        ApplicationOnlyAuthResponse authResponse = AuthenticationHelper.callAuthorizationService(authHeader);
-        Logging.logToConsole(
-                String.format("Token type: %s\nAccess token: %s", authResponse.tokenTypeStr, authResponse.accessToken));
-        if (authResponse.getTokenType() == TokenType.BEARER) {
-            if (parsedArguments.runQueryForInitialData) {
-                queryUsers(authResponse, authUser.screenName, UserQueryType.FOLLOWERS);
-                queryUsers(authResponse, authUser.screenName, UserQueryType.FRIENDS);
-            } else {
-                for (String screenName : parsedArguments.screenNamesToQueryForFollowers) {
-                    queryUsers(authResponse, screenName, UserQueryType.FOLLOWERS);
-                }
-                for (String screenName : parsedArguments.screenNamesToFollowFollowers) {
-                    List<String> followers = getUsersFromFile(screenName, UserQueryType.FOLLOWERS);
-                    for (String follower : followers) {
-                        changeFriendStatus(authResponse, follower, FriendActionType.FOLLOW);
+        StatusServer statusServer = null;
+        if (parsedArguments.statusPort > 0) {
+            Map<String, ExecutorService> executors = new LinkedHashMap<>();
+            executors.put("users", USER_SERVICE);
+            executors.put("change-friend", CHANGE_FRIEND_SERVICE);
+            executors.put("page-parser", ApiHelper.getParseService());
+            statusServer = new StatusServer(parsedArguments.statusPort, executors);
+            statusServer.start();
+        }
+        JobPlanner jobPlanner = null;
+        try {
+            AuthUser authUser = AuthUser.getInstance();
+            Logging.logToConsole("Authentication user screen name: " + authUser.screenName);
+            RateLimitRegistry.getInstance().persist(
+                    Paths.get(ApiConfig.getInstance().dataDirectory, RATE_LIMIT_DIRECTORY), authUser.screenName);
+            String authHeader = AuthenticationHelper.getApplicationOnlyAuthorizationHeader();
+            Logging.logToConsole("Auth header: " + authHeader);
+            ApplicationOnlyAuthResponse authResponse = AuthenticationHelper.callAuthorizationService(authHeader);
+            Logging.logToConsole(String.format("Token type: %s\nAccess token: %s", authResponse.tokenTypeStr,
+                    authResponse.accessToken));
+            if (authResponse.getTokenType() == TokenType.BEARER) {
+                RateLimitRegistry.getInstance().seed(authResponse, ApiHelper.getRateLimitedEndpoints());
+                if (parsedArguments.runDaemon || !parsedArguments.screenNamesToTrack.isEmpty()
+                        || !parsedArguments.screenNamesToUntrack.isEmpty()) {
+                    TrackedAccountRegistry registry = updateTrackedAccounts(parsedArguments);
+                    if (parsedArguments.runDaemon) {
+                        new DaemonScheduler(authResponse, registry, USER_SERVICE, THREAD_COUNT,
+                                parsedArguments.incremental, parsedArguments.backfillPages).run();
                     }
-                }
-                for (String screenName : parsedArguments.screenNamesToUnfollowFollowers) {
-                    List<String> followers = getUsersFromFile(screenName, UserQueryType.FOLLOWERS);
-                    for (String follower : followers) {
-                        changeFriendStatus(authResponse, follower, FriendActionType.UNFOLLOW);
+                } else if (parsedArguments.runQueryForInitialData) {
+                    queryUsers(authResponse, authUser.screenName, UserQueryType.FOLLOWERS,
+                            parsedArguments.incremental);
+                    queryUsers(authResponse, authUser.screenName, UserQueryType.FRIENDS,
+                            parsedArguments.incremental);
+                } else if (parsedArguments.workerRunId != null) {
+                    runWorker(authResponse, parsedArguments);
+                } else if (parsedArguments.isTimelineIngestion()) {
+                    ingestTimelines(authResponse, parsedArguments);
+                } else if (parsedArguments.crawlDepth > 0) {
+                    new FollowerGraphCrawler(authResponse, UserQueryType.FOLLOWERS, parsedArguments.crawlDepth,
+                            USER_SERVICE, THREAD_COUNT).crawl(parsedArguments.screenNamesToQueryForFollowers);
+                } else {
+                    if (!parsedArguments.screenNamesToQueryForFollowers.isEmpty()) {
+                        jobPlanner = new JobPlanner(authResponse, UserQueryType.FOLLOWERS,
+                                RateLimitRegistry.getInstance().get(UserQueryType.FOLLOWERS));
+                        List<JobProgress> jobs = jobPlanner.plan(parsedArguments.screenNamesToQueryForFollowers);
+                        if (!parsedArguments.planOnly) {
+                            jobPlanner.startReporting(jobs);
+                            for (JobProgress job : jobs) {
+                                queryUsers(authResponse, job.screenName, UserQueryType.FOLLOWERS,
+                                        parsedArguments.incremental);
+                            }
+                        }
+                    }
+                    if (parsedArguments.queryFile != null && !parsedArguments.planOnly) {
+                        queryUsersFromFile(authResponse, parsedArguments.queryFile, UserQueryType.FOLLOWERS,
+                                parsedArguments.incremental);
                     }
+                    changeFriendStatusOfFollowers(parsedArguments.screenNamesToFollowFollowers,
+                            FriendActionType.FOLLOW);
+                    changeFriendStatusOfFollowers(parsedArguments.screenNamesToUnfollowFollowers,
+                            FriendActionType.UNFOLLOW);
                 }
             }
+        } finally {
+            USER_SERVICE.shutdown();
+            CHANGE_FRIEND_SERVICE.shutdown();
+            USER_SERVICE.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            CHANGE_FRIEND_SERVICE.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (jobPlanner != null) {
+                jobPlanner.stopReporting();
+            }
+            if (statusServer != null) {
+                statusServer.close();
+            }
         }
-        USER_SERVICE.shutdown();
-        CHANGE_FRIEND_SERVICE.shutdown();
-        USER_SERVICE.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        CHANGE_FRIEND_SERVICE.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
         Logging.logToConsole("Finished " + APP_DESCRIPTION);
     }
 
-    private static void queryUsers(ApplicationOnlyAuthResponse authResponse, String screenName, UserQueryType userType)
+    private static void search(ParsedArguments parsedArguments) throws IOException
+    {
+        SnapshotIndex snapshotIndex = SnapshotIndex.getInstance();
+        long startNanos = System.nanoTime();
+        snapshotIndex.open(parsedArguments.searchAccount);
+        List<SearchResult> results;
+        if (parsedArguments.searchPrefix != null) {
+            results = snapshotIndex.findByScreenNamePrefix(parsedArguments.searchPrefix,
+                    parsedArguments.searchAccount);
+        } else if (parsedArguments.searchLocation != null) {
+            results = snapshotIndex.findByToken(Field.LOCATION, parsedArguments.searchLocation,
+                    parsedArguments.searchAccount);
+        } else {
+            results = snapshotIndex.findByToken(Field.NAME, parsedArguments.searchName, parsedArguments.searchAccount);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        for (SearchResult result : results) {
+            System.out.println(String.format("%s\t@%s\t%s\t%s", result.snapshotName, result.user.screenName,
+                    result.user.name, result.user.location));
+        }
+        Logging.logToConsole(String.format("Found %d users in %d ms", results.size(), elapsedMillis));
+    }
+
+    private static void runWorker(ApplicationOnlyAuthResponse authResponse, ParsedArguments parsedArguments)
+            throws IOException, InterruptedException
+    {
+        Path dataDirectory = Paths.get(ApiConfig.getInstance().dataDirectory);
+        String workerId = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^\\w.-]", "_");
+        Logging.logToConsole(String.format("Worker %s joining run %s", workerId, parsedArguments.workerRunId));
+        try (LeaseDirectory leaseDirectory = new LeaseDirectory(
+                dataDirectory.resolve(COORDINATION_DIRECTORY).resolve(parsedArguments.workerRunId), workerId)) {
+            new ShardedWorker(authResponse, leaseDirectory, USER_SERVICE, THREAD_COUNT)
+                    .run(parsedArguments.screenNamesToQueryForFollowers, UserQueryType.FOLLOWERS);
+        }
+    }
+
+    private static void ingestTimelines(ApplicationOnlyAuthResponse authResponse, ParsedArguments parsedArguments)
+            throws IOException
+    {
+        TimelineIngester timelineIngester = new TimelineIngester(authResponse);
+        for (String screenName : parsedArguments.screenNamesForTimeline) {
+            ingestTimeline(timelineIngester, screenName, TimelineType.TIMELINE, parsedArguments.backfillPages);
+        }
+        for (String screenName : parsedArguments.screenNamesForMentions) {
+            ingestTimeline(timelineIngester, screenName, TimelineType.MENTIONS, parsedArguments.backfillPages);
+        }
+    }
+
+    private static void ingestTimeline(TimelineIngester timelineIngester, String screenName,
+            TimelineType timelineType, int backfillPages)
     {
         USER_SERVICE.submit(() -> {
-            Logging.logToConsole(String.format("Get %s for: %s", userType.toString(), screenName));
+            Logging.logToConsole(String.format("Get %s for: %s", timelineType.toString(), screenName));
             try {
-                ApiHelper.queryAndSaveUsers(authResponse, screenName, userType);
+                timelineIngester.refresh(screenName, timelineType);
+                if (backfillPages > 0) {
+                    timelineIngester.backfill(screenName, timelineType, backfillPages);
+                }
             } catch (IOException e) {
+                Logging.logError(String.format("Get %s for %s failed: %s", timelineType.toString(), screenName, e));
                 throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         });
     }
 
-    private static void changeFriendStatus(ApplicationOnlyAuthResponse authResponse, String screenName, FriendActionType friendActionType)
+    private static TrackedAccountRegistry updateTrackedAccounts(ParsedArguments parsedArguments) throws IOException
     {
-        CHANGE_FRIEND_SERVICE.submit(() -> {
-            Logging.logToConsole(String.format("%s: %s", friendActionType.toString(), screenName));
-            try {
-                ApiHelper.changeFriendStatus(authResponse, screenName, friendActionType);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        TrackedAccountRegistry registry = TrackedAccountRegistry.load();
+        int refreshIntervalMinutes = parsedArguments.refreshIntervalMinutes > 0
+                ? parsedArguments.refreshIntervalMinutes
+                : ApiConfig.getInstance().daemonRefreshMinutes;
+        for (String screenName : parsedArguments.screenNamesToTrack) {
+            Logging.logToConsole(String.format("Track: %s every %d minutes", screenName, refreshIntervalMinutes));
+            registry.track(screenName, UserQueryType.FOLLOWERS, refreshIntervalMinutes);
+        }
+        for (String screenName : parsedArguments.screenNamesToUntrack) {
+            Logging.logToConsole("Untrack: " + screenName);
+            registry.untrack(screenName, UserQueryType.FOLLOWERS);
+        }
+        registry.save();
+        return registry;
+    }
+
+    private static void queryUsers(ApplicationOnlyAuthResponse authResponse, String screenName, UserQueryType userType,
+            boolean incremental)
+    {
+        USER_SERVICE.submit(() -> queryAndSaveUsers(authResponse, screenName, userType, incremental));
+    }
+
+    /**
+     * Streams the screen names from the file into the user service. Reading waits whenever too many jobs are
+     * queued, so the input can be of any size.
+     */
+    private static void queryUsersFromFile(ApplicationOnlyAuthResponse authResponse, String path,
+            UserQueryType userType, boolean incremental) throws IOException, InterruptedException
+    {
+        Semaphore queuedJobs = new Semaphore(MAX_QUEUED_STREAMED_JOBS);
+        long jobCount = 0;
+        try (ScreenNameSource source = ScreenNameSource.open(path)) {
+            String screenName;
+            while ((screenName = source.next()) != null) {
+                queuedJobs.acquire();
+                String jobScreenName = screenName;
+                USER_SERVICE.submit(() -> {
+                    try {
+                        queryAndSaveUsers(authResponse, jobScreenName, userType, incremental);
+                    } finally {
+                        JobProgress.remove(jobScreenName, userType);
+                        queuedJobs.release();
+                    }
+                });
+                jobCount++;
             }
-        });
+            Logging.logToConsole(String.format("Read %d screen names from %s, skipped %d duplicates", jobCount, path,
+                    source.getDuplicateCount()));
+        }
     }
 
-    private static List<String> getUsersFromFile(String screenName, UserQueryType userQueryType) throws IOException
+    private static void queryAndSaveUsers(ApplicationOnlyAuthResponse authResponse, String screenName,
+            UserQueryType userType, boolean incremental)
     {
-        Logging.logToConsole("Get friends from file for: " + screenName);
-        List<String> friendScreenNames = new ArrayList<>();
-        for (User user : ApiHelper.getFromFile(screenName, userQueryType)) {
-            friendScreenNames.add(user.screenName);
+        Logging.logToConsole(String.format("Get %s for: %s", userType.toString(), screenName));
+        try {
+            ApiHelper.queryAndSaveUsers(authResponse, screenName, userType, incremental);
+        } catch (IOException e) {
+            Logging.logError(String.format("Get %s for %s failed: %s", userType.toString(), screenName, e));
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Streams the followers out of the saved followers snapshots of the screen names, all read in parallel, into
+     * the change friend service.
+     */
+    private static void changeFriendStatusOfFollowers(List<String> screenNames, FriendActionType friendActionType)
+            throws IOException
+    {
+        if (screenNames.isEmpty()) {
+            return;
+        }
+        List<Path> snapshotPaths = new ArrayList<>();
+        for (String screenName : screenNames) {
+            snapshotPaths.add(Paths.get(ApiConfig.getInstance().dataDirectory,
+                    String.format(UserQueryType.FOLLOWERS.getFilenameFormat(), screenName)));
+        }
+        BlockingQueue<String> followers = new ArrayBlockingQueue<>(MAX_QUEUED_STREAMED_JOBS);
+        AtomicBoolean loaded = new AtomicBoolean();
+        CHANGE_FRIEND_SERVICE.submit(() -> changeFriendStatus(followers, loaded, friendActionType));
+        try {
+            SnapshotLoader.forEachScreenName(snapshotPaths, follower -> {
+                try {
+                    followers.put(follower);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            });
+        } finally {
+            loaded.set(true);
+        }
+    }
+
+    /**
+     * Follows or unfollows the queued followers one after another until the snapshots are read and the queue is
+     * empty. One consumer is enough, since every action waits for the friendships rate limit anyway.
+     */
+    private static void changeFriendStatus(BlockingQueue<String> followers, AtomicBoolean loaded,
+            FriendActionType friendActionType)
+    {
+        try {
+            while (!loaded.get() || !followers.isEmpty()) {
+                String screenName = followers.poll(1, TimeUnit.SECONDS);
+                if (screenName == null) {
+                    continue;
+                }
+                Logging.logToConsole(String.format("%s: %s", friendActionType.toString(), screenName));
+                try {
+                    ApiHelper.changeFriendStatus(screenName, friendActionType);
+                } catch (IOException | RuntimeException e) {
+                    Logging.logError(String.format("%s %s failed: %s", friendActionType.toString(), screenName, e));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return friendScreenNames;
     }
 }
 
@@ -0,0 +1,163 @@
+package com.twitterbot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Disk-backed crawl frontier. Nodes are spilled to one append-only file per (depth, follower count magnitude)
+ * bucket, so only the stream buffers stay on the heap. Polling drains the shallowest depth first and, within a
+ * depth, the accounts with the most followers first.
+ */
+public class CrawlFrontier implements Closeable
+{
+    private static final int FOLLOWER_COUNT_BUCKETS = Integer.SIZE + 1;
+
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+
+    private final Path directory;
+
+    private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+
+    private long size;
+
+    private long bucketGeneration;
+
+    public CrawlFrontier(Path directory) throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public synchronized void offer(CrawlNode node) throws IOException
+    {
+        int followerMagnitude = Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(0, node.followersCount));
+        int priority = node.depth * FOLLOWER_COUNT_BUCKETS + (Integer.SIZE - followerMagnitude);
+        Bucket bucket = buckets.get(priority);
+        if (bucket == null) {
+            bucket = new Bucket(directory.resolve(String.format("frontier-%d-%d.bin", priority, bucketGeneration++)));
+            buckets.put(priority, bucket);
+        }
+        bucket.write(node);
+        size++;
+    }
+
+    public synchronized CrawlNode poll() throws IOException
+    {
+        if (buckets.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, Bucket> first = buckets.firstEntry();
+        Bucket bucket = first.getValue();
+        CrawlNode node = bucket.read();
+        size--;
+        if (bucket.isDrained()) {
+            bucket.delete();
+            buckets.remove(first.getKey());
+        }
+        return node;
+    }
+
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for (Bucket bucket : buckets.values()) {
+            bucket.delete();
+        }
+        buckets.clear();
+        size = 0;
+    }
+
+    public static class CrawlNode
+    {
+        public final long id;
+
+        public final String screenName;
+
+        public final int followersCount;
+
+        public final int depth;
+
+        public CrawlNode(long id, String screenName, int followersCount, int depth)
+        {
+            this.id = id;
+            this.screenName = screenName;
+            this.followersCount = followersCount;
+            this.depth = depth;
+        }
+    }
+
+    private static class Bucket
+    {
+        private final Path path;
+
+        private final DataOutputStream out;
+
+        private DataInputStream in;
+
+        private long written;
+
+        private long read;
+
+        Bucket(Path path) throws IOException
+        {
+            this.path = path;
+            this.out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(path), STREAM_BUFFER_BYTES));
+        }
+
+        void write(CrawlNode node) throws IOException
+        {
+            out.writeLong(node.id);
+            out.writeInt(node.followersCount);
+            out.writeInt(node.depth);
+            out.writeUTF(node.screenName);
+            written++;
+        }
+
+        CrawlNode read() throws IOException
+        {
+            // Readers only ever see records that have been flushed, so push out anything still buffered.
+            out.flush();
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), STREAM_BUFFER_BYTES));
+            }
+            long id = in.readLong();
+            int followersCount = in.readInt();
+            int depth = in.readInt();
+            String screenName = in.readUTF();
+            read++;
+            return new CrawlNode(id, screenName, followersCount, depth);
+        }
+
+        boolean isDrained()
+        {
+            return read == written;
+        }
+
+        void delete() throws IOException
+        {
+            out.close();
+            if (in != null) {
+                in.close();
+            }
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.ApiHelper.User;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+import com.twitterbot.TimelineIngester.TimelineType;
+import com.twitterbot.TrackedAccountRegistry.TrackedAccount;
+
+/**
+ * Continuously refreshes the accounts in the {@link TrackedAccountRegistry}. Every free worker slot is handed the
+ * account with the best priority, so the rate limit budget never sits idle while any account could use it. Along
+ * with the users of an account, the new tweets of the timelines named by daemon.timelines in config.properties are
+ * ingested.
+ */
+public class DaemonScheduler
+{
+    // Accounts are due once their whole interval has passed.
+    private static final double DUE_STALENESS = 1.0;
+
+    // Accounts become eligible for an early refresh once half of their interval has passed.
+    private static final double EARLY_REFRESH_STALENESS = 0.5;
+
+    private static final long IDLE_WAIT_MILLISECONDS = 60 * 1000;
+
+    // A failed refresh is retried after this delay, doubled for every further failure in a row.
+    private static final long FIRST_RETRY_DELAY_MILLISECONDS = 60 * 1000;
+
+    private final ApplicationOnlyAuthResponse authResponse;
+
+    private final TrackedAccountRegistry registry;
+
+    private final ExecutorService executorService;
+
+    private final int maxInFlight;
+
+    private final boolean incremental;
+
+    private final TimelineIngester timelineIngester;
+
+    private final List<TimelineType> timelineTypes = new ArrayList<>();
+
+    private final int backfillPages;
+
+    private final Set<TrackedAccount> inFlight = new HashSet<>();
+
+    public DaemonScheduler(ApplicationOnlyAuthResponse authResponse, TrackedAccountRegistry registry,
+            ExecutorService executorService, int maxInFlight, boolean incremental, int backfillPages)
+            throws IOException
+    {
+        this.authResponse = authResponse;
+        this.registry = registry;
+        this.executorService = executorService;
+        this.maxInFlight = maxInFlight;
+        this.incremental = incremental;
+        this.timelineIngester = new TimelineIngester(authResponse);
+        for (String timeline : ApiConfig.getInstance().daemonTimelines) {
+            timelineTypes.add(parseTimelineType(timeline));
+        }
+        this.backfillPages = backfillPages;
+    }
+
+    private static TimelineType parseTimelineType(String timeline) throws IOException
+    {
+        for (TimelineType timelineType : TimelineType.values()) {
+            if (timelineType.name().equalsIgnoreCase(timeline)) {
+                return timelineType;
+            }
+        }
+        List<String> validTimelines = new ArrayList<>();
+        for (TimelineType timelineType : TimelineType.values()) {
+            validTimelines.add(timelineType.name().toLowerCase());
+        }
+        throw new IOException(String.format("Unknown timeline \"%s\" in daemon.timelines of config.properties, "
+                + "expected a comma separated list of: %s", timeline, String.join(", ", validTimelines)));
+    }
+
+    public void run() throws InterruptedException
+    {
+        Logging.logToConsole(String.format("Daemon tracking %d accounts", registry.getAccounts().size()));
+        while (!Thread.currentThread().isInterrupted()) {
+            TrackedAccount next;
+            synchronized (this) {
+                while (inFlight.size() >= maxInFlight) {
+                    wait();
+                }
+                next = selectNext(System.currentTimeMillis());
+                if (next == null) {
+                    wait(IDLE_WAIT_MILLISECONDS);
+                    continue;
+                }
+                inFlight.add(next);
+            }
+            TrackedAccount account = next;
+            executorService.submit(() -> refresh(account));
+        }
+    }
+
+    /**
+     * Picks the due account with the highest priority, or, if no account is due yet, the account eligible for an
+     * early refresh with the highest priority. Priority grows with staleness relative to the account's own refresh
+     * interval, and is damped by the square root of the expected page count so that one very large account does not
+     * starve many small ones that are equally overdue.
+     */
+    private TrackedAccount selectNext(long nowMillis)
+    {
+        TrackedAccount next = selectBest(nowMillis, DUE_STALENESS);
+        return (next != null) ? next : selectBest(nowMillis, EARLY_REFRESH_STALENESS);
+    }
+
+    private TrackedAccount selectBest(long nowMillis, double minStaleness)
+    {
+        TrackedAccount best = null;
+        double bestPriority = 0;
+        for (TrackedAccount account : registry.getAccounts()) {
+            if (inFlight.contains(account) || account.retryAtMillis > nowMillis) {
+                continue;
+            }
+            double staleness = account.getStaleness(nowMillis);
+            if (staleness < minStaleness) {
+                continue;
+            }
+            double expectedPages = Math.max(1.0,
+                    (double) account.lastSnapshotSize / ApiConfig.getInstance().userQueryCount);
+            double priority = staleness / Math.sqrt(expectedPages);
+            if (best == null || priority > bestPriority) {
+                best = account;
+                bestPriority = priority;
+            }
+        }
+        return best;
+    }
+
+    private void refresh(TrackedAccount account)
+    {
+        try {
+            refreshUsers(account);
+            ingestTimelines(account);
+        } finally {
+            synchronized (this) {
+                inFlight.remove(account);
+                notifyAll();
+            }
+        }
+    }
+
+    private void refreshUsers(TrackedAccount account)
+    {
+        try {
+            Logging.logToConsole(String.format("Refresh %s for: %s (staleness %.2f)", account.userQueryType,
+                    account.screenName, account.getStaleness(System.currentTimeMillis())));
+            List<User> users = ApiHelper.queryAndSaveUsers(authResponse, account.screenName, account.userQueryType,
+                    incremental);
+            if (users != null) {
+                registry.recordRefresh(account, System.currentTimeMillis(), users.size());
+                saveRegistry();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The account stays due, but waits out a short, growing delay so it is not retried in a tight loop. The
+            // delay never exceeds the refresh interval of the account.
+            int attempts = account.failedAttempts + 1;
+            long delayMillis = Math.min(account.getIntervalMillis(),
+                    FIRST_RETRY_DELAY_MILLISECONDS << Math.min(attempts - 1, 20));
+            Logging.logError(String.format("%s - refresh failed, retrying in %d s: %s", account.screenName,
+                    TimeUnit.MILLISECONDS.toSeconds(delayMillis), e));
+            registry.recordFailure(account, System.currentTimeMillis() + delayMillis);
+            saveRegistry();
+        }
+    }
+
+    /**
+     * Ingests the timelines of the account independently of its users, so a failed timeline neither fails nor
+     * delays the refresh of the users.
+     */
+    private void ingestTimelines(TrackedAccount account)
+    {
+        for (TimelineType timelineType : timelineTypes) {
+            try {
+                timelineIngester.refresh(account.screenName, timelineType);
+                if (backfillPages > 0) {
+                    timelineIngester.backfill(account.screenName, timelineType, backfillPages);
+                }
+            } catch (IOException | RuntimeException e) {
+                Logging.logError(String.format("%s - %s ingestion failed: %s", account.screenName, timelineType, e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void saveRegistry()
+    {
+        try {
+            registry.save();
+        } catch (IOException e) {
+            Logging.logError("Saving tracked accounts failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.twitterbot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Open-addressing hash set of non-zero ids stored in a memory-mapped file, so the set can grow well beyond the
+ * heap. Zero marks an empty slot. The file is only scratch space: it is emptied on open, so a set never outlives
+ * the process that filled it.
+ */
+public class DiskIdSet implements Closeable
+{
+    private static final int SLOT_BYTES = Long.BYTES;
+
+    private static final int SLOTS_PER_SEGMENT_SHIFT = 27;
+
+    private static final long SLOTS_PER_SEGMENT = 1L << SLOTS_PER_SEGMENT_SHIFT;
+
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    private final Path path;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer[] segments;
+
+    private long capacity;
+
+    private long size;
+
+    public DiskIdSet(Path path, long initialCapacity) throws IOException
+    {
+        this.path = path;
+        Files.deleteIfExists(path);
+        open(path, Long.highestOneBit(Math.max(1024, initialCapacity - 1) << 1));
+    }
+
+    public synchronized boolean contains(long id)
+    {
+        long mask = capacity - 1;
+        for (long slot = BloomFilter.mix(id) & mask;; slot = (slot + 1) & mask) {
+            long current = getSlot(slot);
+            if (current == 0) {
+                return false;
+            }
+            if (current == id) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the id was not already in the set.
+     */
+    public synchronized boolean add(long id) throws IOException
+    {
+        if (id == 0) {
+            throw new IllegalArgumentException("Id 0 cannot be stored");
+        }
+        if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+            grow();
+        }
+        if (insert(id)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        unmap(segments);
+        segments = null;
+        channel.close();
+    }
+
+    private boolean insert(long id)
+    {
+        long mask = capacity - 1;
+        for (long slot = BloomFilter.mix(id) & mask;; slot = (slot + 1) & mask) {
+            long current = getSlot(slot);
+            if (current == id) {
+                return false;
+            }
+            if (current == 0) {
+                putSlot(slot, id);
+                return true;
+            }
+        }
+    }
+
+    private void grow() throws IOException
+    {
+        FileChannel oldChannel = channel;
+        MappedByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        Path growPath = path.resolveSibling(path.getFileName() + ".grow");
+        Files.deleteIfExists(growPath);
+        open(growPath, oldCapacity << 1);
+        for (int segmentIndex = 0; segmentIndex < oldSegments.length; segmentIndex++) {
+            MappedByteBuffer oldSegment = oldSegments[segmentIndex];
+            for (int offset = 0; offset < oldSegment.capacity(); offset += SLOT_BYTES) {
+                long id = oldSegment.getLong(offset);
+                if (id != 0) {
+                    insert(id);
+                }
+            }
+        }
+        // Both files are replaced or reopened below, which some platforms refuse while they are still mapped.
+        unmap(oldSegments);
+        oldChannel.close();
+        unmap(segments);
+        channel.close();
+        Files.move(growPath, path, StandardCopyOption.REPLACE_EXISTING);
+        open(path, oldCapacity << 1);
+    }
+
+    /**
+     * Releases mappings right away instead of whenever their buffers are garbage collected, which may be long after
+     * their pages could have been given back. The buffers must not be used afterwards. Java has no public API for
+     * this, so the internal one of the running version is used; if there is none, the mappings are left to the
+     * garbage collector.
+     */
+    private static void unmap(MappedByteBuffer[] buffers)
+    {
+        for (MappedByteBuffer buffer : buffers) {
+            try {
+                try {
+                    // Java 9 and later.
+                    Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                    Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                } catch (NoSuchMethodException e) {
+                    // Java 8.
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Logging.logError("Could not unmap the id set, leaving it to the garbage collector: " + e);
+                return;
+            }
+        }
+    }
+
+    private void open(Path file, long slotCount) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        capacity = slotCount;
+        int segmentCount = (int) ((slotCount + SLOTS_PER_SEGMENT - 1) >>> SLOTS_PER_SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long segmentSlots = Math.min(SLOTS_PER_SEGMENT, slotCount - ((long) i << SLOTS_PER_SEGMENT_SHIFT));
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SLOTS_PER_SEGMENT * SLOT_BYTES,
+                    segmentSlots * SLOT_BYTES);
+        }
+    }
+
+    private long getSlot(long slot)
+    {
+        return segments[(int) (slot >>> SLOTS_PER_SEGMENT_SHIFT)]
+                .getLong((int) (slot & (SLOTS_PER_SEGMENT - 1)) * SLOT_BYTES);
+    }
+
+    private void putSlot(long slot, long id)
+    {
+        segments[(int) (slot >>> SLOTS_PER_SEGMENT_SHIFT)].putLong((int) (slot & (SLOTS_PER_SEGMENT - 1)) * SLOT_BYTES,
+                id);
+    }
+}
@@ -0,0 +1,139 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.ApiHelper.User;
+import com.twitterbot.ApiHelper.UserQueryType;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+import com.twitterbot.CrawlFrontier.CrawlNode;
+
+public class FollowerGraphCrawler
+{
+    private static final String CRAWL_DIRECTORY = "crawl";
+
+    private static final String VISITED_FILENAME = "visited.bin";
+
+    private final ApplicationOnlyAuthResponse authResponse;
+
+    private final UserQueryType userQueryType;
+
+    private final int maxDepth;
+
+    private final ExecutorService executorService;
+
+    private final Semaphore inFlightPermits;
+
+    private int activeJobs;
+
+    public FollowerGraphCrawler(ApplicationOnlyAuthResponse authResponse, UserQueryType userQueryType, int maxDepth,
+            ExecutorService executorService, int maxInFlight)
+    {
+        this.authResponse = authResponse;
+        this.userQueryType = userQueryType;
+        this.maxDepth = maxDepth;
+        this.executorService = executorService;
+        this.inFlightPermits = new Semaphore(maxInFlight);
+    }
+
+    public void crawl(List<String> seedScreenNames) throws IOException, InterruptedException
+    {
+        Path crawlDirectory = Paths.get(ApiConfig.getInstance().dataDirectory, CRAWL_DIRECTORY);
+        try (CrawlFrontier frontier = new CrawlFrontier(crawlDirectory);
+                VisitedIdSet visited = new VisitedIdSet(crawlDirectory.resolve(VISITED_FILENAME),
+                        ApiConfig.getInstance().crawlExpectedNodes)) {
+            queueSeeds(seedScreenNames, frontier, visited);
+            while (true) {
+                inFlightPermits.acquire();
+                CrawlNode node;
+                synchronized (this) {
+                    while ((node = frontier.poll()) == null && activeJobs > 0) {
+                        wait();
+                    }
+                    if (node == null) {
+                        inFlightPermits.release();
+                        break;
+                    }
+                    activeJobs++;
+                }
+                CrawlNode current = node;
+                executorService.submit(() -> {
+                    try {
+                        expand(current, frontier, visited);
+                    } catch (IOException e) {
+                        Logging.logError(String.format("%s - crawl failed: %s", current.screenName, e));
+                    } finally {
+                        synchronized (this) {
+                            activeJobs--;
+                            notifyAll();
+                        }
+                        inFlightPermits.release();
+                    }
+                });
+            }
+            Logging.logToConsole(String.format("Crawl finished, visited %d accounts", visited.size()));
+        }
+    }
+
+    /**
+     * Looks up the ids of the seeds, so they are marked visited like every other account and are not crawled
+     * again when they turn up as followers. Seeds the API does not know are skipped.
+     */
+    private void queueSeeds(List<String> seedScreenNames, CrawlFrontier frontier, VisitedIdSet visited)
+            throws IOException, InterruptedException
+    {
+        Set<String> unknownScreenNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        unknownScreenNames.addAll(seedScreenNames);
+        for (User user : ApiHelper.lookupUsers(authResponse, seedScreenNames)) {
+            unknownScreenNames.remove(user.screenName);
+            if (visited.markVisited(user.id)) {
+                frontier.offer(new CrawlNode(user.id, user.screenName, Integer.MAX_VALUE, 0));
+            }
+        }
+        for (String screenName : unknownScreenNames) {
+            Logging.logError(String.format("%s - unknown account, not crawled", screenName));
+        }
+    }
+
+    /**
+     * Saves the users of the account and queues the unvisited ones page by page, so only one page of users is held
+     * at a time however large the account is.
+     */
+    private void expand(CrawlNode node, CrawlFrontier frontier, VisitedIdSet visited) throws IOException
+    {
+        Logging.logToConsole(String.format("Crawl depth %d: %s", node.depth, node.screenName));
+        int childDepth = node.depth + 1;
+        AtomicLong queued = new AtomicLong();
+        int userCount = ApiHelper.queryAndSaveUsers(authResponse, node.screenName, userQueryType, false, users -> {
+            if (childDepth >= maxDepth) {
+                return;
+            }
+            synchronized (this) {
+                try {
+                    for (User user : users) {
+                        if (visited.markVisited(user.id)) {
+                            frontier.offer(new CrawlNode(user.id, user.screenName, user.followersCount, childDepth));
+                            queued.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        if (userCount < 0 || childDepth >= maxDepth) {
+            return;
+        }
+        Logging.logToConsole(String.format("%s - queued %d of %d accounts, frontier size %d", node.screenName,
+                queued.get(), userCount, frontier.size()));
+    }
+}
@@ -22,7 +22,7 @@ public class HttpHelper
 
     private static final String HTTP_GET_REQUEST_METHOD = "GET";
 
-    private static final String HTTP_POST_REQUEST_METHOD = "POST";
+    public static final String HTTP_POST_REQUEST_METHOD = "POST";
 
     private static final String HTTP_DELETE_REQUEST_METHOD = "DELETE";
 
@@ -0,0 +1,145 @@
+package com.twitterbot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.ApiHelper.User;
+import com.twitterbot.SnapshotWriter.Snapshot;
+
+/**
+ * Previous snapshot of a user list, used to refresh it incrementally. The API returns the newest users first, so
+ * once a page consists (mostly) of users the previous snapshot already has, the rest of the list is taken from
+ * the previous snapshot instead of being paged through again. Users that left are only noticed by a full refresh,
+ * which is forced once the last one is older than the configured interval.
+ */
+public class IncrementalRefresh
+{
+    private static final String METADATA_SUFFIX = ".meta";
+
+    private static final int TAIL_BATCH_LINES = 1000;
+
+    private final Path snapshotPath;
+
+    private final LongHashSet knownIds;
+
+    /**
+     * @return the previous snapshot, or null if there is none or a full refresh is due.
+     */
+    public static IncrementalRefresh load(Path snapshotPath) throws IOException
+    {
+        if (!Files.exists(snapshotPath)) {
+            return null;
+        }
+        SnapshotMetadata metadata = readMetadata(snapshotPath);
+        long fullRefreshMillis = ApiConfig.getInstance().incrementalFullRefreshHours * 60L * 60L * 1000L;
+        if (metadata == null || System.currentTimeMillis() - metadata.lastFullRefreshMillis >= fullRefreshMillis) {
+            Logging.logToConsole(snapshotPath.getFileName() + " - full refresh due");
+            return null;
+        }
+        LongHashSet knownIds = new LongHashSet();
+        try (BufferedReader reader = Files.newBufferedReader(snapshotPath, HttpHelper.HTTP_REQUEST_CHARSET)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!StringHelper.isNullOrEmpty(line)) {
+                    knownIds.add(JsonHelper.objectFromJson(line, User.class).id);
+                }
+            }
+        }
+        return new IncrementalRefresh(snapshotPath, knownIds);
+    }
+
+    public static void recordFullRefresh(Path snapshotPath) throws IOException
+    {
+        SnapshotMetadata metadata = new SnapshotMetadata();
+        metadata.lastFullRefreshMillis = System.currentTimeMillis();
+        Path metadataPath = getMetadataPath(snapshotPath);
+        Path tempPath = metadataPath.resolveSibling(metadataPath.getFileName() + ".tmp");
+        Files.write(tempPath, Collections.singletonList(JsonHelper.objectToJson(metadata)),
+                HttpHelper.HTTP_REQUEST_CHARSET);
+        Files.move(tempPath, metadataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private IncrementalRefresh(Path snapshotPath, LongHashSet knownIds)
+    {
+        this.snapshotPath = snapshotPath;
+        this.knownIds = knownIds;
+    }
+
+    /**
+     * @return false for an empty page, which says nothing about where the previous snapshot starts.
+     */
+    public boolean isMostlyKnown(List<User> users)
+    {
+        if (users.isEmpty()) {
+            return false;
+        }
+        int known = 0;
+        for (User user : users) {
+            if (knownIds.contains(user.id)) {
+                known++;
+            }
+        }
+        return known >= users.size() * ApiConfig.getInstance().incrementalKnownFraction;
+    }
+
+    /**
+     * Appends the users of the previous snapshot that were not in the newly fetched head, keeping their order.
+     * 
+     * @return the appended users.
+     */
+    public List<User> appendTail(Snapshot snapshot, LongHashSet headIds) throws IOException, InterruptedException
+    {
+        List<User> tailUsers = new ArrayList<>();
+        List<String> batch = new ArrayList<>(TAIL_BATCH_LINES);
+        try (BufferedReader reader = Files.newBufferedReader(snapshotPath, HttpHelper.HTTP_REQUEST_CHARSET)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringHelper.isNullOrEmpty(line)) {
+                    continue;
+                }
+                User user = JsonHelper.objectFromJson(line, User.class);
+                if (!headIds.contains(user.id)) {
+                    tailUsers.add(user);
+                    batch.add(line);
+                    if (batch.size() == TAIL_BATCH_LINES) {
+                        SnapshotWriter.getInstance().append(snapshot, batch);
+                        batch = new ArrayList<>(TAIL_BATCH_LINES);
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            SnapshotWriter.getInstance().append(snapshot, batch);
+        }
+        return tailUsers;
+    }
+
+    private static SnapshotMetadata readMetadata(Path snapshotPath) throws IOException
+    {
+        Path metadataPath = getMetadataPath(snapshotPath);
+        if (!Files.exists(metadataPath)) {
+            return null;
+        }
+        return JsonHelper.objectFromJson(new String(Files.readAllBytes(metadataPath), HttpHelper.HTTP_REQUEST_CHARSET),
+                SnapshotMetadata.class);
+    }
+
+    private static Path getMetadataPath(Path snapshotPath)
+    {
+        return snapshotPath.resolveSibling(snapshotPath.getFileName() + METADATA_SUFFIX);
+    }
+
+    private static class SnapshotMetadata
+    {
+        @SerializedName("last_full_refresh_millis")
+        public long lastFullRefreshMillis;
+    }
+}
@@ -0,0 +1,193 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.ApiHelper.User;
+import com.twitterbot.ApiHelper.UserQueryType;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+
+/**
+ * Estimates how many pages each user query job needs and orders the jobs shortest first. All jobs draw from the
+ * same rate limit bucket, so the total time is fixed by the total number of pages; running the short jobs first
+ * minimizes the sum of the job completion times. The ETAs take both the rate limit and the measured time per page
+ * request into account.
+ */
+public class JobPlanner
+{
+    private static final long REPORT_INTERVAL_MILLISECONDS = 60 * 1000;
+
+    // The average line length of the start of a previous snapshot stands for the whole file.
+    private static final int SNAPSHOT_SAMPLE_BYTES = 64 * 1024;
+
+    static final Comparator<JobProgress> SHORTEST_FIRST = Comparator.comparingInt(JobProgress::getEstimatedPages);
+
+    private final ApplicationOnlyAuthResponse authResponse;
+
+    private final UserQueryType userQueryType;
+
+    private final RateLimitBucket rateLimitBucket;
+
+    private final ScheduledExecutorService reportService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "eta-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public JobPlanner(ApplicationOnlyAuthResponse authResponse, UserQueryType userQueryType,
+            RateLimitBucket rateLimitBucket)
+    {
+        this.authResponse = authResponse;
+        this.userQueryType = userQueryType;
+        this.rateLimitBucket = rateLimitBucket;
+    }
+
+    /**
+     * Estimates the user count of every job from its previous snapshot, looking up the accounts that have none.
+     * 
+     * @return the jobs in the order they should be run.
+     */
+    public List<JobProgress> plan(List<String> screenNames) throws IOException, InterruptedException
+    {
+        Map<String, Long> estimatedUsers = new HashMap<>();
+        List<String> unknownScreenNames = new ArrayList<>();
+        for (String screenName : screenNames) {
+            Path snapshotPath = Paths.get(ApiConfig.getInstance().dataDirectory,
+                    String.format(userQueryType.getFilenameFormat(), screenName));
+            if (Files.exists(snapshotPath)) {
+                estimatedUsers.put(screenName.toLowerCase(), estimateLines(snapshotPath));
+            } else {
+                unknownScreenNames.add(screenName);
+            }
+        }
+        if (!unknownScreenNames.isEmpty()) {
+            Logging.logToConsole(String.format("Looking up user counts for %d accounts", unknownScreenNames.size()));
+            for (User user : ApiHelper.lookupUsers(authResponse, unknownScreenNames)) {
+                estimatedUsers.put(user.screenName.toLowerCase(),
+                        (long) ((userQueryType == UserQueryType.FOLLOWERS) ? user.followersCount : user.friendsCount));
+            }
+        }
+        List<JobProgress> jobs = new ArrayList<>();
+        int pageSize = ApiConfig.getInstance().userQueryCount;
+        for (String screenName : screenNames) {
+            long users = estimatedUsers.getOrDefault(screenName.toLowerCase(), 0L);
+            JobProgress job = JobProgress.get(screenName, userQueryType);
+            job.setEstimatedPages((int) Math.max(1, (users + pageSize - 1) / pageSize));
+            jobs.add(job);
+        }
+        jobs.sort(SHORTEST_FIRST);
+        logEstimates(jobs, "Plan");
+        return jobs;
+    }
+
+    public void startReporting(List<JobProgress> jobs)
+    {
+        reportService.scheduleAtFixedRate(() -> {
+            try {
+                logEstimates(jobs, "Progress");
+            } catch (IOException e) {
+                Logging.logToConsole("Could not estimate progress: " + e);
+            }
+        }, REPORT_INTERVAL_MILLISECONDS, REPORT_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stopReporting()
+    {
+        reportService.shutdownNow();
+    }
+
+    /**
+     * @param pageMillis the measured time of one page request, or 0 before any was measured.
+     * @return when the last of the given number of pages will have arrived. The pages are requested one after
+     *         another, so they take at least their request time, and no earlier than the rate limit allows.
+     */
+    public long estimateCompletionMillis(long pages, long pageMillis) throws IOException
+    {
+        long requestBoundMillis = System.currentTimeMillis() + pages * pageMillis;
+        int remaining = rateLimitBucket.getRemaining();
+        if (pages <= remaining) {
+            return requestBoundMillis;
+        }
+        int limit = rateLimitBucket.getLimit();
+        long extraWindows = (pages - remaining + limit - 1) / limit;
+        long lastWindowPages = pages - remaining - (extraWindows - 1) * limit;
+        long rateLimitBoundMillis = rateLimitBucket.getWindowResetMillis()
+                + (extraWindows - 1) * rateLimitBucket.getWindowMilliseconds() + lastWindowPages * pageMillis;
+        return Math.max(requestBoundMillis, rateLimitBoundMillis);
+    }
+
+    /**
+     * @return the average time of the page requests of the jobs so far, or 0 if none finished yet.
+     */
+    static long getAveragePageMillis(List<JobProgress> jobs)
+    {
+        long requestMillis = 0;
+        long requests = 0;
+        for (JobProgress job : jobs) {
+            requestMillis += job.getRequestMillis();
+            requests += job.getRequestsTimed();
+        }
+        return (requests > 0) ? requestMillis / requests : 0;
+    }
+
+    private void logEstimates(List<JobProgress> jobs, String heading) throws IOException
+    {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy.MM.dd.HH.mm");
+        long pageMillis = getAveragePageMillis(jobs);
+        long pagesAhead = 0;
+        for (JobProgress job : jobs) {
+            int remainingPages = job.getRemainingPages();
+            if (remainingPages == 0) {
+                continue;
+            }
+            // Jobs run side by side, so a job finishes after the pages of everything planned before it.
+            pagesAhead += remainingPages;
+            Logging.logToConsole(String.format("%s - %s %s: page %d of ~%d, ETA %s", heading, job.userQueryType,
+                    job.screenName, job.getPagesFetched(), job.getEstimatedPages(),
+                    timeFormat.format(new Date(estimateCompletionMillis(pagesAhead, pageMillis)))));
+        }
+        Logging.logToConsole(String.format("%s - %d jobs, ~%d pages left, ETA %s", heading, jobs.size(), pagesAhead,
+                timeFormat.format(new Date(estimateCompletionMillis(pagesAhead, pageMillis)))));
+    }
+
+    /**
+     * Estimates the line count of a snapshot from its size and the average line length of its start, so planning
+     * does not read every previous snapshot in full.
+     */
+    private static long estimateLines(Path path) throws IOException
+    {
+        long size = Files.size(path);
+        byte[] sample = new byte[(int) Math.min(size, SNAPSHOT_SAMPLE_BYTES)];
+        int sampled = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int bytesRead;
+            while (sampled < sample.length && (bytesRead = in.read(sample, sampled, sample.length - sampled)) != -1) {
+                sampled += bytesRead;
+            }
+        }
+        long lines = 0;
+        for (int i = 0; i < sampled; i++) {
+            if (sample[i] == '\n') {
+                lines++;
+            }
+        }
+        if (sampled == size || lines == 0) {
+            return lines;
+        }
+        return Math.round((double) size * lines / sampled);
+    }
+}
@@ -0,0 +1,203 @@
+package com.twitterbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.twitterbot.ApiHelper.UserQueryType;
+
+/**
+ * Progress of the user query jobs of this process, updated by {@link ApiHelper#queryAndSaveUsers} as pages come
+ * in. Jobs planned by the {@link JobPlanner} are kept until the process ends, so the whole batch can be reported;
+ * any other job is dropped as soon as it finishes, so crawls and daemons do not accumulate them.
+ */
+public class JobProgress
+{
+    public enum State
+    {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private static final Map<String, JobProgress> JOBS = new ConcurrentHashMap<>();
+
+    public static JobProgress get(String screenName, UserQueryType userQueryType)
+    {
+        return JOBS.computeIfAbsent(getKey(screenName, userQueryType),
+                key -> new JobProgress(screenName, userQueryType));
+    }
+
+    /**
+     * Drops a finished job, for callers that stream through more jobs than should be kept in memory.
+     */
+    public static void remove(String screenName, UserQueryType userQueryType)
+    {
+        JOBS.remove(getKey(screenName, userQueryType));
+    }
+
+    public static List<JobProgress> getAll()
+    {
+        return new ArrayList<>(JOBS.values());
+    }
+
+    private static String getKey(String screenName, UserQueryType userQueryType)
+    {
+        return String.format("%s/%s", userQueryType, screenName);
+    }
+
+    public final String screenName;
+
+    public final UserQueryType userQueryType;
+
+    private volatile State state = State.QUEUED;
+
+    private volatile int estimatedPages;
+
+    private volatile boolean planned;
+
+    private final AtomicInteger pagesFetched = new AtomicInteger();
+
+    private final AtomicLong usersFetched = new AtomicLong();
+
+    private final AtomicInteger requestsTimed = new AtomicInteger();
+
+    private final AtomicLong requestMillis = new AtomicLong();
+
+    private volatile long cursor = -1;
+
+    private final AtomicLong rateLimitWaitMillis = new AtomicLong();
+
+    private volatile long rateLimitWaitStartMillis;
+
+    private JobProgress(String screenName, UserQueryType userQueryType)
+    {
+        this.screenName = screenName;
+        this.userQueryType = userQueryType;
+    }
+
+    /**
+     * Sets the estimate of a planned job, which keeps the job after it finishes.
+     */
+    public void setEstimatedPages(int estimatedPages)
+    {
+        this.estimatedPages = estimatedPages;
+        planned = true;
+    }
+
+    public void start()
+    {
+        state = State.RUNNING;
+        pagesFetched.set(0);
+        usersFetched.set(0);
+        requestsTimed.set(0);
+        requestMillis.set(0);
+        cursor = -1;
+        rateLimitWaitMillis.set(0);
+    }
+
+    public void startRateLimitWait()
+    {
+        rateLimitWaitStartMillis = System.currentTimeMillis();
+    }
+
+    public void stopRateLimitWait()
+    {
+        rateLimitWaitMillis.addAndGet(System.currentTimeMillis() - rateLimitWaitStartMillis);
+        rateLimitWaitStartMillis = 0;
+    }
+
+    public void recordPage(long nextCursor)
+    {
+        pagesFetched.incrementAndGet();
+        cursor = nextCursor;
+    }
+
+    /**
+     * Records how long one page request took, from sending it to having the whole response.
+     */
+    public void recordRequest(long millis)
+    {
+        requestMillis.addAndGet(millis);
+        requestsTimed.incrementAndGet();
+    }
+
+    public void recordUsers(int userCount)
+    {
+        usersFetched.addAndGet(userCount);
+    }
+
+    public void finish(boolean succeeded)
+    {
+        state = succeeded ? State.DONE : State.FAILED;
+        if (!planned) {
+            JOBS.remove(getKey(screenName, userQueryType), this);
+        }
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public int getEstimatedPages()
+    {
+        return estimatedPages;
+    }
+
+    public int getPagesFetched()
+    {
+        return pagesFetched.get();
+    }
+
+    public long getUsersFetched()
+    {
+        return usersFetched.get();
+    }
+
+    public int getRequestsTimed()
+    {
+        return requestsTimed.get();
+    }
+
+    public long getRequestMillis()
+    {
+        return requestMillis.get();
+    }
+
+    public long getCursor()
+    {
+        return cursor;
+    }
+
+    public boolean isWaitingForRateLimit()
+    {
+        return rateLimitWaitStartMillis != 0;
+    }
+
+    /**
+     * @return the time this job has spent waiting for the rate limit, including a wait still going on.
+     */
+    public long getRateLimitWaitMillis()
+    {
+        long waitStartMillis = rateLimitWaitStartMillis;
+        long currentWaitMillis = (waitStartMillis != 0) ? System.currentTimeMillis() - waitStartMillis : 0;
+        return rateLimitWaitMillis.get() + currentWaitMillis;
+    }
+
+    /**
+     * @return the pages still expected for this job; a running job that has outgrown its estimate is assumed to
+     *         need at least one more page.
+     */
+    public int getRemainingPages()
+    {
+        switch (state) {
+        case DONE:
+        case FAILED:
+            return 0;
+        default:
+            return Math.max(state == State.RUNNING ? 1 : 0, estimatedPages - pagesFetched.get());
+        }
+    }
+}
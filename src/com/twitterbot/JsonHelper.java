@@ -6,6 +6,7 @@ import java.io.StringReader;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonReader;
+import com.twitterbot.ApiHelper.ApiConfig;
 
 public class JsonHelper
 {
@@ -13,6 +14,7 @@ public class JsonHelper
 
     static {
         GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapterFactory(new ApiTypeAdapters(ApiConfig.getInstance().userExtraFields));
         GSON = gsonBuilder.create();
     }
 
@@ -0,0 +1,265 @@
+package com.twitterbot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinates worker processes through plain files in a shared directory. Each worker keeps a heartbeat file
+ * fresh, a job is owned by whoever managed to create its lease file, and the lease's modification time doubles as
+ * its heartbeat. Leases and workers whose heartbeat is older than the timeout are treated as crashed. Every lease
+ * holds a token unique to one acquisition, so a worker that stalled past the timeout notices that its lease was
+ * reclaimed, see {@link #checkLease}.
+ */
+public class LeaseDirectory implements Closeable
+{
+    private static final String WORKERS_DIRECTORY = "workers";
+
+    private static final String LEASES_DIRECTORY = "leases";
+
+    private static final String DONE_DIRECTORY = "done";
+
+    private static final long HEARTBEAT_MILLISECONDS = 10 * 1000;
+
+    private static final long LEASE_TIMEOUT_MILLISECONDS = 6 * HEARTBEAT_MILLISECONDS;
+
+    private final String workerId;
+
+    private final Path workersDirectory;
+
+    private final Path leasesDirectory;
+
+    private final Path doneDirectory;
+
+    // The token written into every lease this worker holds, by job key.
+    private final Map<String, String> heldLeases = new ConcurrentHashMap<>();
+
+    private final AtomicLong reclaimSequence = new AtomicLong();
+
+    private final AtomicLong leaseSequence = new AtomicLong();
+
+    private final ScheduledExecutorService heartbeatService = Executors.newSingleThreadScheduledExecutor();
+
+    public LeaseDirectory(Path root, String workerId) throws IOException
+    {
+        this.workerId = workerId;
+        this.workersDirectory = Files.createDirectories(root.resolve(WORKERS_DIRECTORY));
+        this.leasesDirectory = Files.createDirectories(root.resolve(LEASES_DIRECTORY));
+        this.doneDirectory = Files.createDirectories(root.resolve(DONE_DIRECTORY));
+        heartbeat();
+        heartbeatService.scheduleAtFixedRate(() -> {
+            try {
+                heartbeat();
+            } catch (IOException e) {
+                Logging.logError(String.format("Worker %s - heartbeat failed: %s", workerId, e));
+            }
+        }, HEARTBEAT_MILLISECONDS, HEARTBEAT_MILLISECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    public String getWorkerId()
+    {
+        return workerId;
+    }
+
+    /**
+     * @return the ids of all workers with a fresh heartbeat, sorted so every worker sees the same order.
+     */
+    public List<String> getLiveWorkers() throws IOException
+    {
+        List<String> liveWorkers = new ArrayList<>();
+        try (DirectoryStream<Path> workerFiles = Files.newDirectoryStream(workersDirectory)) {
+            for (Path workerFile : workerFiles) {
+                if (!isStale(workerFile)) {
+                    liveWorkers.add(workerFile.getFileName().toString());
+                }
+            }
+        }
+        if (!liveWorkers.contains(workerId)) {
+            liveWorkers.add(workerId);
+        }
+        Collections.sort(liveWorkers);
+        return liveWorkers;
+    }
+
+    public boolean isDone(String jobKey)
+    {
+        return Files.exists(doneDirectory.resolve(jobKey));
+    }
+
+    public boolean tryAcquireLease(String jobKey) throws IOException
+    {
+        if (isDone(jobKey)) {
+            return false;
+        }
+        Path lease = leasesDirectory.resolve(jobKey);
+        if (tryCreateLease(lease, jobKey)) {
+            return true;
+        }
+        FileTime staleModifiedTime = getStaleModifiedTime(lease);
+        if (staleModifiedTime == null) {
+            return false;
+        }
+        String staleOwner = readOwner(lease);
+        // Another worker may have reclaimed the lease and created a fresh one since it was seen as stale, so the
+        // lease is first moved out of the way under a name nobody else uses, and only dropped if it is still the
+        // stale lease that was seen.
+        Path reclaimed = leasesDirectory.resolve(
+                String.format("%s.%s.%d.reclaimed", jobKey, workerId, reclaimSequence.incrementAndGet()));
+        try {
+            Files.move(lease, reclaimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!staleModifiedTime.equals(Files.getLastModifiedTime(reclaimed))
+                || !staleOwner.equals(readOwner(reclaimed))) {
+            restoreLease(reclaimed, lease, jobKey);
+            return false;
+        }
+        Files.deleteIfExists(reclaimed);
+        Logging.logToConsole(String.format("Worker %s - reclaimed stale lease of %s for %s", workerId, staleOwner,
+                jobKey));
+        return tryCreateLease(lease, jobKey);
+    }
+
+    /**
+     * Fails unless this worker still holds the lease it acquired for the job. Checked right before the results of a
+     * job are committed, so a worker whose lease went stale and was reclaimed cannot overwrite the results of the
+     * worker that took the job over.
+     */
+    public void checkLease(String jobKey) throws IOException
+    {
+        String token = heldLeases.get(jobKey);
+        if (token == null || !token.equals(readOwner(leasesDirectory.resolve(jobKey)))) {
+            heldLeases.remove(jobKey);
+            throw new IOException(String.format("Worker %s - lease for %s was reclaimed by another worker", workerId,
+                    jobKey));
+        }
+    }
+
+    public void markDone(String jobKey) throws IOException
+    {
+        try {
+            Files.createFile(doneDirectory.resolve(jobKey));
+        } catch (FileAlreadyExistsException e) {
+        }
+        releaseLease(jobKey);
+    }
+
+    /**
+     * Deletes the lease of the job, unless another worker has reclaimed it meanwhile.
+     */
+    public void releaseLease(String jobKey) throws IOException
+    {
+        String token = heldLeases.remove(jobKey);
+        Path lease = leasesDirectory.resolve(jobKey);
+        if (token != null && token.equals(readOwner(lease))) {
+            Files.deleteIfExists(lease);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        heartbeatService.shutdownNow();
+        for (String jobKey : new ArrayList<>(heldLeases.keySet())) {
+            releaseLease(jobKey);
+        }
+        Files.deleteIfExists(workersDirectory.resolve(workerId));
+    }
+
+    private boolean tryCreateLease(Path lease, String jobKey) throws IOException
+    {
+        String token = String.format("%s %d", workerId, leaseSequence.incrementAndGet());
+        try {
+            Files.write(Files.createFile(lease), token.getBytes(HttpHelper.HTTP_REQUEST_CHARSET));
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        heldLeases.put(jobKey, token);
+        return true;
+    }
+
+    /**
+     * Puts back a lease that was moved away by mistake. The caller backs off and looks at the job again on its next
+     * poll.
+     */
+    private void restoreLease(Path reclaimed, Path lease, String jobKey) throws IOException
+    {
+        try {
+            Files.move(reclaimed, lease);
+            Logging.logToConsole(String.format("Worker %s - lease for %s was renewed, backing off", workerId, jobKey));
+        } catch (FileAlreadyExistsException e) {
+            // A third worker created a new lease in the meantime; it owns the job now.
+            Files.deleteIfExists(reclaimed);
+            Logging.logError(String.format("Worker %s - lease for %s was taken over while reclaiming it", workerId,
+                    jobKey));
+        }
+    }
+
+    private String readOwner(Path lease) throws IOException
+    {
+        try {
+            return new String(Files.readAllBytes(lease), HttpHelper.HTTP_REQUEST_CHARSET);
+        } catch (NoSuchFileException e) {
+            return StringHelper.EMPTY;
+        }
+    }
+
+    /**
+     * @return the modification time of the file if it is stale, otherwise null.
+     */
+    private FileTime getStaleModifiedTime(Path file) throws IOException
+    {
+        try {
+            FileTime modifiedTime = Files.getLastModifiedTime(file);
+            return (System.currentTimeMillis() - modifiedTime.toMillis() > LEASE_TIMEOUT_MILLISECONDS)
+                    ? modifiedTime
+                    : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean isStale(Path file) throws IOException
+    {
+        return getStaleModifiedTime(file) != null;
+    }
+
+    private void heartbeat() throws IOException
+    {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        Path workerFile = workersDirectory.resolve(workerId);
+        if (!Files.exists(workerFile)) {
+            Files.createFile(workerFile);
+        }
+        Files.setLastModifiedTime(workerFile, now);
+        for (Map.Entry<String, String> heldLease : heldLeases.entrySet()) {
+            Path lease = leasesDirectory.resolve(heldLease.getKey());
+            // A lease reclaimed by another worker is that worker's to keep fresh.
+            if (!heldLease.getValue().equals(readOwner(lease))) {
+                heldLeases.remove(heldLease.getKey());
+                continue;
+            }
+            try {
+                Files.setLastModifiedTime(lease, now);
+            } catch (NoSuchFileException e) {
+                heldLeases.remove(heldLease.getKey());
+            }
+        }
+    }
+}
@@ -1,16 +1,54 @@
 package com.twitterbot;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.List;
 
 public class Logging
 {
     private static final String TIMESTAMP_FORMAT = "[%s] ";
 
+    private static final int RECENT_ERROR_COUNT = 50;
+
+    private static final Deque<String> RECENT_ERRORS = new ArrayDeque<>(RECENT_ERROR_COUNT);
+
     static void logToConsole(String message)
+    {
+        System.out.println(formatWithTimestamp(message));
+    }
+
+    /**
+     * Logs the message and keeps it among the recent errors shown by the {@link StatusServer}.
+     */
+    static void logError(String message)
+    {
+        String line = formatWithTimestamp(message);
+        System.out.println(line);
+        synchronized (RECENT_ERRORS) {
+            if (RECENT_ERRORS.size() == RECENT_ERROR_COUNT) {
+                RECENT_ERRORS.removeFirst();
+            }
+            RECENT_ERRORS.addLast(line);
+        }
+    }
+
+    /**
+     * @return the most recent errors, oldest first.
+     */
+    static List<String> getRecentErrors()
+    {
+        synchronized (RECENT_ERRORS) {
+            return new ArrayList<>(RECENT_ERRORS);
+        }
+    }
+
+    private static String formatWithTimestamp(String message)
     {
         String timestamp = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date());
-        System.out.println(String.format(TIMESTAMP_FORMAT, timestamp) + message);
+        return String.format(TIMESTAMP_FORMAT, timestamp) + message;
     }
 }
 
@@ -0,0 +1,97 @@
+package com.twitterbot;
+
+/**
+ * Open-addressing hash set of primitive longs, about a quarter of the footprint of a {@code HashSet<Long>}.
+ */
+public class LongHashSet
+{
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    // Zero marks an empty slot, so whether the set holds zero is tracked separately.
+    private boolean containsZero;
+
+    private long[] slots;
+
+    private int size;
+
+    public LongHashSet()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize)
+    {
+        slots = new long[Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize * 2) - 1) << 1];
+    }
+
+    public boolean contains(long value)
+    {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = slots.length - 1;
+        for (int slot = (int) BloomFilter.mix(value) & mask;; slot = (slot + 1) & mask) {
+            if (slots[slot] == 0) {
+                return false;
+            }
+            if (slots[slot] == value) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the value was not already in the set.
+     */
+    public boolean add(long value)
+    {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        if (size + 1 > slots.length * MAX_LOAD_FACTOR) {
+            grow();
+        }
+        if (insert(slots, value)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private void grow()
+    {
+        long[] grown = new long[slots.length << 1];
+        for (long value : slots) {
+            if (value != 0) {
+                insert(grown, value);
+            }
+        }
+        slots = grown;
+    }
+
+    private static boolean insert(long[] table, long value)
+    {
+        int mask = table.length - 1;
+        for (int slot = (int) BloomFilter.mix(value) & mask;; slot = (slot + 1) & mask) {
+            if (table[slot] == value) {
+                return false;
+            }
+            if (table[slot] == 0) {
+                table[slot] = value;
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-window rate limit. A window opens with the first request after the previous one has ended and allows
+ * {@code limit} requests until it closes. By default the window state lives in memory; once {@link #persist(Path)}
+ * is called, the used count and reset time live in a small memory-mapped state file guarded by a file lock. A
+ * restarted process then picks up the window where the previous one left off, and every process pointing at the
+ * same file draws from the same budget.
+ */
+public class RateLimitBucket
+{
+    private static final int STATE_BYTES = 2 * Long.BYTES;
+
+    private final String name;
+
+    private final int limit;
+
+    private final long windowMilliseconds;
+
+    private final Clock clock;
+
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+
+    private int used;
+
+    private long windowResetMillis;
+
+    private FileChannel stateChannel;
+
+    private MappedByteBuffer state;
+
+    public RateLimitBucket(String name, int limit, long windowMilliseconds)
+    {
+        this(name, limit, windowMilliseconds, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock
+     *            the clock the windows are timed by; the {@link RateLimitSimulator} passes a virtual one.
+     */
+    RateLimitBucket(String name, int limit, long windowMilliseconds, Clock clock)
+    {
+        this.name = name;
+        this.limit = limit;
+        this.windowMilliseconds = windowMilliseconds;
+        this.clock = clock;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public long getWindowMilliseconds()
+    {
+        return windowMilliseconds;
+    }
+
+    /**
+     * @return the number of threads currently blocked in {@link #acquire()}.
+     */
+    public int getWaitingThreads()
+    {
+        return waitingThreads.get();
+    }
+
+    public synchronized void persist(Path stateFile) throws IOException
+    {
+        stateChannel = FileChannel.open(stateFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // A new file maps as zeros, which reads as an expired window with nothing used.
+        state = stateChannel.map(FileChannel.MapMode.READ_WRITE, 0, STATE_BYTES);
+    }
+
+    /**
+     * Blocks until a request is allowed in the current window.
+     * 
+     * @return the number of the request within its window, starting at 1.
+     */
+    public int acquire() throws InterruptedException, IOException
+    {
+        while (true) {
+            long waitMillis;
+            synchronized (this) {
+                int requestNumber = tryAcquire();
+                if (requestNumber > 0) {
+                    return requestNumber;
+                }
+                waitMillis = windowResetMillis - clock.millis();
+            }
+            waitingThreads.incrementAndGet();
+            try {
+                Thread.sleep(Math.max(1, waitMillis));
+            } finally {
+                waitingThreads.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Takes a request from the current window if one is left, without waiting.
+     * 
+     * @return the number of the request within its window, or 0 if the window is used up.
+     */
+    public synchronized int tryAcquire() throws IOException
+    {
+        FileLock lock = (stateChannel != null) ? stateChannel.lock() : null;
+        try {
+            if (lock != null) {
+                readSharedState();
+            }
+            long nowMillis = clock.millis();
+            if (nowMillis >= windowResetMillis) {
+                used = 0;
+                windowResetMillis = nowMillis + windowMilliseconds;
+            }
+            if (used >= limit) {
+                return 0;
+            }
+            used++;
+            if (lock != null) {
+                writeSharedState();
+            }
+            return used;
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Overwrites the current window with the state reported by the API.
+     */
+    public synchronized void seed(int remaining, long resetMillis) throws IOException
+    {
+        FileLock lock = (stateChannel != null) ? stateChannel.lock() : null;
+        try {
+            used = Math.max(0, limit - remaining);
+            windowResetMillis = resetMillis;
+            if (lock != null) {
+                writeSharedState();
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * @return the requests left in the current window; a full budget if the window has ended.
+     */
+    public synchronized int getRemaining() throws IOException
+    {
+        readStateIfShared();
+        return (clock.millis() >= windowResetMillis) ? limit : limit - used;
+    }
+
+    /**
+     * @return when the current window ends; for an ended window, when a window opened now would end.
+     */
+    public synchronized long getWindowResetMillis() throws IOException
+    {
+        readStateIfShared();
+        long nowMillis = clock.millis();
+        return (nowMillis >= windowResetMillis) ? nowMillis + windowMilliseconds : windowResetMillis;
+    }
+
+    private void readStateIfShared() throws IOException
+    {
+        if (stateChannel != null) {
+            FileLock lock = stateChannel.lock();
+            try {
+                readSharedState();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void readSharedState()
+    {
+        used = (int) state.getLong(0);
+        windowResetMillis = state.getLong(Long.BYTES);
+    }
+
+    private void writeSharedState()
+    {
+        state.putLong(0, used);
+        state.putLong(Long.BYTES, windowResetMillis);
+    }
+}
@@ -0,0 +1,157 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.annotations.SerializedName;
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+
+/**
+ * The rate limit buckets of this process, one per credential and endpoint family. Every endpoint declares its
+ * family and limit, so endpoints with independent quotas run side by side at their full rates, and endpoints that
+ * share a quota share a bucket. Once {@link #persist} is called, every bucket keeps its window in a state file
+ * named after its credential and family.
+ */
+public class RateLimitRegistry
+{
+    private static final long RATE_LIMIT_WINDOW_MILLISECONDS = 15 * 60 * 1000;
+
+    private static final String RATE_LIMIT_STATUS_URL = ApiConfig.getInstance().twitterApiUrl
+            + "application/rate_limit_status.json?resources=%s";
+
+    private static final String DEFAULT_CREDENTIAL = "default";
+
+    private static final RateLimitRegistry INSTANCE = new RateLimitRegistry();
+
+    public static RateLimitRegistry getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private final Map<String, RateLimitBucket> buckets = new LinkedHashMap<>();
+
+    private String defaultCredential = DEFAULT_CREDENTIAL;
+
+    private Path stateDirectory;
+
+    private RateLimitRegistry()
+    {
+    }
+
+    /**
+     * Keeps the state of every bucket in the given directory, and makes the credential the one buckets are looked
+     * up for by default. Restarted processes resume the current windows instead of starting with full budgets, and
+     * all processes sharing the directory and credential stay within the limits together.
+     */
+    public synchronized void persist(Path directory, String credential) throws IOException
+    {
+        Files.createDirectories(directory);
+        stateDirectory = directory;
+        defaultCredential = credential;
+        for (Map.Entry<String, RateLimitBucket> bucket : buckets.entrySet()) {
+            bucket.getValue().persist(stateDirectory.resolve(bucket.getKey() + ".state"));
+        }
+    }
+
+    public synchronized RateLimitBucket get(RateLimitedEndpoint endpoint) throws IOException
+    {
+        return get(defaultCredential, endpoint);
+    }
+
+    public synchronized RateLimitBucket get(String credential, RateLimitedEndpoint endpoint) throws IOException
+    {
+        String key = String.format("%s-%s", credential, endpoint.getRateLimitFamily());
+        RateLimitBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new RateLimitBucket(endpoint.getRateLimitFamily(), endpoint.getRequestsPer15MinuteWindow(),
+                    RATE_LIMIT_WINDOW_MILLISECONDS);
+            if (stateDirectory != null) {
+                bucket.persist(stateDirectory.resolve(key + ".state"));
+            }
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    public synchronized List<RateLimitBucket> getBuckets()
+    {
+        return new ArrayList<>(buckets.values());
+    }
+
+    /**
+     * Seeds the buckets of the endpoints with the budgets the API reports as left in the current windows.
+     */
+    public void seed(ApplicationOnlyAuthResponse authResponse, List<? extends RateLimitedEndpoint> endpoints)
+            throws IOException
+    {
+        Set<String> resources = new LinkedHashSet<>();
+        for (RateLimitedEndpoint endpoint : endpoints) {
+            if (endpoint.getRateLimitResource() != null) {
+                resources.add(endpoint.getRateLimitResource());
+            }
+        }
+        if (resources.isEmpty()) {
+            return;
+        }
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = HttpHelper.createUrlConnection(
+                    String.format(RATE_LIMIT_STATUS_URL, String.join(",", resources)),
+                    HttpHelper.createGetDetails(authResponse));
+            String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
+            if (StringHelper.isNullOrEmpty(responseJson)) {
+                return;
+            }
+            RateLimitStatusResponse response = JsonHelper.objectFromJson(responseJson, RateLimitStatusResponse.class);
+            for (RateLimitedEndpoint endpoint : endpoints) {
+                RateLimitStatus status = response.getStatus(endpoint.getRateLimitResource(),
+                        endpoint.getRateLimitEndpoint());
+                if (status != null) {
+                    RateLimitBucket bucket = get(endpoint);
+                    Logging.logToConsole(String.format("Rate limit %s - %d of %d requests left", bucket.getName(),
+                            status.remaining, bucket.getLimit()));
+                    bucket.seed(status.remaining, status.reset * 1000);
+                }
+            }
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private static class RateLimitStatusResponse
+    {
+        @SerializedName("resources")
+        public Map<String, Map<String, RateLimitStatus>> resources;
+
+        RateLimitStatus getStatus(String resource, String endpoint)
+        {
+            if (resource == null || resources == null || !resources.containsKey(resource)) {
+                return null;
+            }
+            return resources.get(resource).get(endpoint);
+        }
+    }
+
+    private static class RateLimitStatus
+    {
+        @SerializedName("limit")
+        public int limit;
+
+        @SerializedName("remaining")
+        public int remaining;
+
+        @SerializedName("reset")
+        public long reset;
+    }
+}
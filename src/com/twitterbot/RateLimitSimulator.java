@@ -0,0 +1,342 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.twitterbot.ApiHelper.UserQueryType;
+
+/**
+ * Runs user query jobs against a synthetic API on a virtual clock, so job orders and rate limit layouts can be
+ * compared in seconds instead of real 15 minute windows. The jobs are real {@link JobProgress} instances, ordered as
+ * the {@link JobPlanner} would, and every request takes a permit from a real {@link RateLimitBucket} timed by the
+ * virtual clock. Account sizes follow a heavy-tailed distribution, and page latencies and the time a thread takes to
+ * hand a page to the parse stage log-normal ones. Like the {@link UserPageIterator}, a thread can prefetch: when a
+ * page arrives and the window has a request left, the next page is requested right away instead of after the
+ * hand-off.
+ * <p>
+ * Usage: {@code RateLimitSimulator [--jobs=<count>] [--threads=<count>] [--friends-fraction=<0..1>] [--seed=<n>]
+ * [--prefetch=<true|false>]}
+ */
+public class RateLimitSimulator
+{
+    private static final long WINDOW_MILLISECONDS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final int REQUESTS_PER_WINDOW = 30;
+
+    private static final int PAGE_SIZE = 200;
+
+    private static final double MEDIAN_LATENCY_MILLISECONDS = 400;
+
+    private static final double LATENCY_SIGMA = 0.6;
+
+    private static final double MEDIAN_HANDOFF_MILLISECONDS = 50;
+
+    private static final int MIN_ACCOUNT_USERS = 200;
+
+    private static final double ACCOUNT_SIZE_ALPHA = 1.1;
+
+    private static final long MAX_ACCOUNT_USERS = 2000000;
+
+    public enum JobOrder
+    {
+        FIFO, SHORTEST_FIRST, LONGEST_FIRST
+    }
+
+    public enum LimiterLayout
+    {
+        /** Followers and friends queries draw from one bucket. */
+        SHARED,
+        /** Every endpoint has its own bucket, as in the {@link RateLimitRegistry}. */
+        PER_ENDPOINT
+    }
+
+    public static void main(String[] arguments) throws IOException
+    {
+        int jobCount = 200;
+        int threadCount = Bot.THREAD_COUNT;
+        double friendsFraction = 0.5;
+        long seed = 1;
+        boolean prefetch = true;
+        Pattern argumentPattern = Pattern.compile("--([\\w-]+)=(.+)");
+        for (String argument : arguments) {
+            Matcher matcher = argumentPattern.matcher(argument);
+            if (!matcher.matches()) {
+                System.out.println("Unknown argument: " + argument);
+                return;
+            }
+            switch (matcher.group(1)) {
+            case "jobs":
+                jobCount = Integer.parseInt(matcher.group(2));
+                break;
+            case "threads":
+                threadCount = Integer.parseInt(matcher.group(2));
+                break;
+            case "friends-fraction":
+                friendsFraction = Double.parseDouble(matcher.group(2));
+                break;
+            case "seed":
+                seed = Long.parseLong(matcher.group(2));
+                break;
+            case "prefetch":
+                prefetch = Boolean.parseBoolean(matcher.group(2));
+                break;
+            default:
+                System.out.println("Unknown argument: " + argument);
+                return;
+            }
+        }
+        List<JobProgress> jobs = createJobs(jobCount, friendsFraction, new Random(seed));
+        long totalPages = 0;
+        for (JobProgress job : jobs) {
+            totalPages += job.getEstimatedPages();
+        }
+        System.out.println(String.format(
+                "%d jobs, %d pages, %d threads, %d requests per %d minute window, prefetch %s", jobs.size(),
+                totalPages, threadCount, REQUESTS_PER_WINDOW, TimeUnit.MILLISECONDS.toMinutes(WINDOW_MILLISECONDS),
+                prefetch ? "on" : "off"));
+        for (LimiterLayout limiterLayout : LimiterLayout.values()) {
+            for (JobOrder jobOrder : JobOrder.values()) {
+                long startNanos = System.nanoTime();
+                SimulationResult result = simulate(jobs, jobOrder, limiterLayout, threadCount, prefetch,
+                        new Random(seed));
+                System.out.println(String.format("%-12s %-14s %s (%d ms)", limiterLayout, jobOrder, result,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+            }
+        }
+    }
+
+    /**
+     * Creates the jobs with their exact page counts as estimates.
+     */
+    static List<JobProgress> createJobs(int jobCount, double friendsFraction, Random random)
+    {
+        List<JobProgress> jobs = new ArrayList<>();
+        for (int index = 0; index < jobCount; index++) {
+            UserQueryType userQueryType = (random.nextDouble() < friendsFraction)
+                    ? UserQueryType.FRIENDS
+                    : UserQueryType.FOLLOWERS;
+            // Pareto distributed, like follower counts.
+            double users = MIN_ACCOUNT_USERS * Math.pow(1 - random.nextDouble(), -1 / ACCOUNT_SIZE_ALPHA);
+            long pages = (Math.min(MAX_ACCOUNT_USERS, (long) users) + PAGE_SIZE - 1) / PAGE_SIZE;
+            JobProgress job = JobProgress.get(String.format("simulated%05d", index), userQueryType);
+            job.setEstimatedPages((int) Math.max(1, pages));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs the jobs, all submitted at time zero, on the given number of threads. Each thread runs one job at a time
+     * and fetches its pages one after another, waiting for the window to end whenever its bucket is used up.
+     */
+    static SimulationResult simulate(List<JobProgress> jobs, JobOrder jobOrder, LimiterLayout limiterLayout,
+            int threadCount, boolean prefetch, Random random) throws IOException
+    {
+        VirtualClock clock = new VirtualClock();
+        Map<UserQueryType, RateLimitBucket> buckets = new EnumMap<>(UserQueryType.class);
+        RateLimitBucket sharedBucket = new RateLimitBucket("shared", REQUESTS_PER_WINDOW, WINDOW_MILLISECONDS, clock);
+        for (UserQueryType userQueryType : UserQueryType.values()) {
+            buckets.put(userQueryType, (limiterLayout == LimiterLayout.SHARED)
+                    ? sharedBucket
+                    : new RateLimitBucket(userQueryType.getRateLimitFamily(),
+                            userQueryType.getRequestsPer15MinuteWindow(), WINDOW_MILLISECONDS, clock));
+        }
+        List<JobProgress> orderedJobs = new ArrayList<>(jobs);
+        if (jobOrder == JobOrder.SHORTEST_FIRST) {
+            orderedJobs.sort(JobPlanner.SHORTEST_FIRST);
+        } else if (jobOrder == JobOrder.LONGEST_FIRST) {
+            orderedJobs.sort(JobPlanner.SHORTEST_FIRST.reversed());
+        }
+        Deque<JobProgress> queuedJobs = new ArrayDeque<>(orderedJobs);
+        PriorityQueue<Event> events = new PriorityQueue<>();
+        for (int index = 0; index < threadCount; index++) {
+            events.add(new Event(0, index, new SimulatedThread()));
+        }
+        long sequence = threadCount;
+        long permitsUsed = 0;
+        long[] jobLatencies = new long[jobs.size()];
+        int finishedJobs = 0;
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            clock.millis = event.timeMillis;
+            SimulatedThread thread = event.thread;
+            if (thread.pageInFlight) {
+                thread.pageInFlight = false;
+                // The cursor only matters to the API, so it just counts down the pages left.
+                thread.job.recordPage(thread.job.getEstimatedPages() - thread.job.getPagesFetched() - 1);
+                long handoffMillis = sampleMillis(MEDIAN_HANDOFF_MILLISECONDS, random);
+                if (thread.job.getPagesFetched() >= thread.job.getEstimatedPages()) {
+                    thread.job.finish(true);
+                    jobLatencies[finishedJobs++] = clock.millis;
+                    thread.job = null;
+                } else if (prefetch && buckets.get(thread.job.userQueryType).tryAcquire() > 0) {
+                    // The next page is on its way during the hand-off; the thread goes on when both are done.
+                    permitsUsed++;
+                    thread.pageInFlight = true;
+                    long latencyMillis = sampleMillis(MEDIAN_LATENCY_MILLISECONDS, random);
+                    events.add(new Event(clock.millis + Math.max(handoffMillis, latencyMillis), sequence++, thread));
+                    continue;
+                }
+                events.add(new Event(clock.millis + handoffMillis, sequence++, thread));
+                continue;
+            }
+            if (thread.job == null) {
+                thread.job = queuedJobs.poll();
+                if (thread.job == null) {
+                    continue;
+                }
+                thread.job.start();
+            }
+            RateLimitBucket bucket = buckets.get(thread.job.userQueryType);
+            if (bucket.tryAcquire() > 0) {
+                permitsUsed++;
+                thread.pageInFlight = true;
+                events.add(new Event(clock.millis + sampleMillis(MEDIAN_LATENCY_MILLISECONDS, random), sequence++,
+                        thread));
+            } else {
+                events.add(new Event(bucket.getWindowResetMillis(), sequence++, thread));
+            }
+        }
+        long windows = (clock.millis + WINDOW_MILLISECONDS - 1) / WINDOW_MILLISECONDS;
+        long permitsAvailable = 0;
+        for (RateLimitBucket bucket : new LinkedHashSet<>(buckets.values())) {
+            permitsAvailable += windows * bucket.getLimit();
+        }
+        return new SimulationResult(clock.millis, permitsUsed, permitsAvailable,
+                Arrays.copyOf(jobLatencies, finishedJobs));
+    }
+
+    private static long sampleMillis(double medianMillis, Random random)
+    {
+        return (long) (medianMillis * Math.exp(LATENCY_SIGMA * random.nextGaussian()));
+    }
+
+    static class SimulationResult
+    {
+        final long completionMillis;
+
+        final long permitsUsed;
+
+        final long permitsAvailable;
+
+        // Sorted, from submission to the last page of each job.
+        final long[] jobLatencyMillis;
+
+        SimulationResult(long completionMillis, long permitsUsed, long permitsAvailable, long[] jobLatencyMillis)
+        {
+            this.completionMillis = completionMillis;
+            this.permitsUsed = permitsUsed;
+            this.permitsAvailable = permitsAvailable;
+            this.jobLatencyMillis = jobLatencyMillis;
+            Arrays.sort(this.jobLatencyMillis);
+        }
+
+        long getMeanJobLatencyMillis()
+        {
+            return (jobLatencyMillis.length == 0) ? 0 : (long) Arrays.stream(jobLatencyMillis).average().getAsDouble();
+        }
+
+        long getJobLatencyPercentileMillis(double percentile)
+        {
+            if (jobLatencyMillis.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * jobLatencyMillis.length) - 1;
+            return jobLatencyMillis[Math.max(0, index)];
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("done in %s, permits %d of %d (%.1f%%), job latency mean %s p50 %s p90 %s max %s",
+                    formatDuration(completionMillis), permitsUsed, permitsAvailable,
+                    (permitsAvailable == 0) ? 0 : 100.0 * permitsUsed / permitsAvailable,
+                    formatDuration(getMeanJobLatencyMillis()), formatDuration(getJobLatencyPercentileMillis(50)),
+                    formatDuration(getJobLatencyPercentileMillis(90)),
+                    formatDuration(getJobLatencyPercentileMillis(100)));
+        }
+
+        private static String formatDuration(long millis)
+        {
+            long minutes = TimeUnit.MILLISECONDS.toMinutes(millis);
+            return String.format("%dh%02dm", minutes / 60, minutes % 60);
+        }
+    }
+
+    private static class SimulatedThread
+    {
+        JobProgress job;
+
+        boolean pageInFlight;
+    }
+
+    private static class Event implements Comparable<Event>
+    {
+        final long timeMillis;
+
+        // Breaks ties in submission order, so runs are deterministic.
+        final long sequence;
+
+        final SimulatedThread thread;
+
+        Event(long timeMillis, long sequence, SimulatedThread thread)
+        {
+            this.timeMillis = timeMillis;
+            this.sequence = sequence;
+            this.thread = thread;
+        }
+
+        @Override
+        public int compareTo(Event other)
+        {
+            int byTime = Long.compare(timeMillis, other.timeMillis);
+            return (byTime != 0) ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class VirtualClock extends Clock
+    {
+        long millis;
+
+        @Override
+        public long millis()
+        {
+            return millis;
+        }
+
+        @Override
+        public Instant instant()
+        {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone()
+        {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone)
+        {
+            // Only the instant matters to the rate limit buckets.
+            return this;
+        }
+    }
+}
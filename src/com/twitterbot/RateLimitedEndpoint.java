@@ -0,0 +1,26 @@
+package com.twitterbot;
+
+/**
+ * An API endpoint with its own rate limit. Endpoints of the same family share one bucket in the
+ * {@link RateLimitRegistry}.
+ */
+public interface RateLimitedEndpoint
+{
+    /**
+     * @return the name of the bucket the endpoint draws from.
+     */
+    String getRateLimitFamily();
+
+    int getRequestsPer15MinuteWindow();
+
+    /**
+     * @return the resource the endpoint is reported under by application/rate_limit_status, or null if it is not
+     *         reported there.
+     */
+    String getRateLimitResource();
+
+    /**
+     * @return the endpoint as named by application/rate_limit_status, such as {@code /followers/list}.
+     */
+    String getRateLimitEndpoint();
+}
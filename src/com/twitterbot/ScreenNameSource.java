@@ -0,0 +1,104 @@
+package com.twitterbot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Reads screen names from a file, or from standard input for {@code -}, one at a time so that lists of any size
+ * can be fed to the bot. Names may be separated by newlines, commas or whitespace and may start with {@code @}.
+ * Screen names are case-insensitive, so they are lowercased, and each name is returned only once. Seen names are
+ * remembered as 64-bit hashes; for lists of millions of names the chance of two different names colliding is still
+ * negligible.
+ */
+public class ScreenNameSource implements AutoCloseable
+{
+    private static final String STANDARD_INPUT = "-";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final BufferedReader reader;
+
+    private final LongHashSet seenNameHashes = new LongHashSet();
+
+    private String[] lineNames = new String[0];
+
+    private int lineNameIndex;
+
+    private long duplicateCount;
+
+    private ScreenNameSource(BufferedReader reader)
+    {
+        this.reader = reader;
+    }
+
+    public static ScreenNameSource open(String path) throws IOException
+    {
+        if (STANDARD_INPUT.equals(path)) {
+            return new ScreenNameSource(
+                    new BufferedReader(new InputStreamReader(System.in, HttpHelper.HTTP_REQUEST_CHARSET)));
+        }
+        return new ScreenNameSource(Files.newBufferedReader(Paths.get(path), HttpHelper.HTTP_REQUEST_CHARSET));
+    }
+
+    /**
+     * @return the next screen name that has not been returned before, or null at the end of the input.
+     */
+    public String next() throws IOException
+    {
+        while (true) {
+            while (lineNameIndex < lineNames.length) {
+                String screenName = normalize(lineNames[lineNameIndex++]);
+                if (screenName.isEmpty()) {
+                    continue;
+                }
+                if (seenNameHashes.add(hash(screenName))) {
+                    return screenName;
+                }
+                duplicateCount++;
+            }
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNames = line.split("[,\\s]+");
+            lineNameIndex = 0;
+        }
+    }
+
+    public long getDuplicateCount()
+    {
+        return duplicateCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+    private static String normalize(String screenName)
+    {
+        String trimmed = screenName.trim();
+        if (trimmed.startsWith("@")) {
+            trimmed = trimmed.substring(1);
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    // 64-bit FNV-1a.
+    private static long hash(String screenName)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int index = 0; index < screenName.length(); index++) {
+            hash ^= screenName.charAt(index);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,174 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.twitterbot.ApiHelper.UserQueryType;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+import com.twitterbot.SnapshotWriter.CommitFence;
+
+/**
+ * Runs one worker's share of a job list that several processes were started with. Jobs are sharded by screen name
+ * hash over the live workers; once a worker's own shard is exhausted it steals unleased jobs from the back of the
+ * other shards, and it keeps polling until every job is done so that leases of crashed workers get reclaimed. A job
+ * that fails is retried with exponential backoff, and given up on after {@link #MAX_ATTEMPTS} attempts.
+ */
+public class ShardedWorker
+{
+    private static final long POLL_MILLISECONDS = 5 * 1000;
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final long MAX_RETRY_DELAY_MILLISECONDS = 5 * 60 * 1000;
+
+    private final ApplicationOnlyAuthResponse authResponse;
+
+    private final LeaseDirectory leaseDirectory;
+
+    private final ExecutorService executorService;
+
+    private final int maxInFlight;
+
+    private final Set<String> inFlight = new HashSet<>();
+
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+
+    private final Map<String, Long> retryAtMillis = new HashMap<>();
+
+    public ShardedWorker(ApplicationOnlyAuthResponse authResponse, LeaseDirectory leaseDirectory,
+            ExecutorService executorService, int maxInFlight)
+    {
+        this.authResponse = authResponse;
+        this.leaseDirectory = leaseDirectory;
+        this.executorService = executorService;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void run(List<String> screenNames, UserQueryType userQueryType) throws IOException, InterruptedException
+    {
+        Set<String> remaining = new LinkedHashSet<>(screenNames);
+        while (true) {
+            List<String> liveWorkers = leaseDirectory.getLiveWorkers();
+            int workerIndex = liveWorkers.indexOf(leaseDirectory.getWorkerId());
+            List<String> ownShard = new ArrayList<>();
+            List<String> otherShards = new ArrayList<>();
+            synchronized (this) {
+                long nowMillis = System.currentTimeMillis();
+                for (String screenName : remaining) {
+                    String jobKey = getJobKey(screenName, userQueryType);
+                    if (inFlight.contains(jobKey) || retryAtMillis.getOrDefault(jobKey, 0L) > nowMillis) {
+                        continue;
+                    }
+                    if (getShard(screenName, liveWorkers.size()) == workerIndex) {
+                        ownShard.add(screenName);
+                    } else {
+                        otherShards.add(screenName);
+                    }
+                }
+                if (remaining.isEmpty() && inFlight.isEmpty()) {
+                    break;
+                }
+            }
+            Collections.reverse(otherShards);
+            List<String> candidates = new ArrayList<>(ownShard);
+            candidates.addAll(otherShards);
+            for (String screenName : candidates) {
+                String jobKey = getJobKey(screenName, userQueryType);
+                if (leaseDirectory.isDone(jobKey)) {
+                    synchronized (this) {
+                        remaining.remove(screenName);
+                    }
+                    continue;
+                }
+                synchronized (this) {
+                    if (inFlight.size() >= maxInFlight) {
+                        break;
+                    }
+                }
+                if (leaseDirectory.tryAcquireLease(jobKey)) {
+                    synchronized (this) {
+                        inFlight.add(jobKey);
+                    }
+                    executorService.submit(() -> runJob(screenName, userQueryType, jobKey, remaining));
+                }
+            }
+            synchronized (this) {
+                if (!remaining.isEmpty() || !inFlight.isEmpty()) {
+                    wait(POLL_MILLISECONDS);
+                }
+            }
+        }
+        Logging.logToConsole(String.format("Worker %s - all jobs done", leaseDirectory.getWorkerId()));
+    }
+
+    private void runJob(String screenName, UserQueryType userQueryType, String jobKey, Set<String> remaining)
+    {
+        try {
+            Logging.logToConsole(String.format("Worker %s - get %s for: %s", leaseDirectory.getWorkerId(),
+                    userQueryType, screenName));
+            // The snapshot is only committed while this worker still holds the lease, so a worker that stalled and
+            // lost the job to another cannot overwrite that worker's snapshot.
+            CommitFence leaseFence = () -> leaseDirectory.checkLease(jobKey);
+            int userCount = ApiHelper.queryAndSaveUsers(authResponse, screenName, userQueryType, false, users -> {},
+                    leaseFence);
+            if (userCount >= 0) {
+                leaseDirectory.markDone(jobKey);
+                synchronized (this) {
+                    remaining.remove(screenName);
+                }
+            } else {
+                // Interrupted; the job stays to be done, by this worker or another.
+                leaseDirectory.releaseLease(jobKey);
+            }
+        } catch (IOException | RuntimeException e) {
+            recordFailure(screenName, jobKey, remaining, e);
+            try {
+                leaseDirectory.releaseLease(jobKey);
+            } catch (IOException releaseException) {
+                Logging.logError(String.format("%s - could not release lease: %s", screenName, releaseException));
+            }
+        } finally {
+            synchronized (this) {
+                inFlight.remove(jobKey);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Keeps a failed job for a retry after a delay that doubles with every failed attempt, until it has failed
+     * {@link #MAX_ATTEMPTS} times. Its lease is released either way, so other workers may pick it up meanwhile.
+     */
+    private synchronized void recordFailure(String screenName, String jobKey, Set<String> remaining, Exception e)
+    {
+        int attempts = failedAttempts.merge(jobKey, 1, Integer::sum);
+        if (attempts >= MAX_ATTEMPTS) {
+            Logging.logError(String.format("%s - job failed %d times, giving up: %s", screenName, attempts, e));
+            remaining.remove(screenName);
+            return;
+        }
+        long delayMillis = Math.min(MAX_RETRY_DELAY_MILLISECONDS, POLL_MILLISECONDS << (attempts - 1));
+        Logging.logError(String.format("%s - job failed, retrying in %d s: %s", screenName,
+                TimeUnit.MILLISECONDS.toSeconds(delayMillis), e));
+        retryAtMillis.put(jobKey, System.currentTimeMillis() + delayMillis);
+    }
+
+    static int getShard(String screenName, int workerCount)
+    {
+        return Math.floorMod(screenName.toLowerCase().hashCode(), workerCount);
+    }
+
+    static String getJobKey(String screenName, UserQueryType userQueryType)
+    {
+        return String.format("%s-%s", userQueryType.toString().toLowerCase(), screenName.toLowerCase());
+    }
+}
@@ -0,0 +1,496 @@
+package com.twitterbot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.ApiHelper.User;
+import com.twitterbot.ApiHelper.UserQueryType;
+
+/**
+ * Search index over the saved user snapshots. Every snapshot file gets its own index segment with an inverted
+ * index of the {@code name} and {@code location} tokens and a sorted list of screen names for prefix lookups. A
+ * segment is rebuilt whenever its snapshot is rewritten, and a search consults the segments of all snapshots, so
+ * questions across every account are answered from memory with binary searches. Matching users are read back from
+ * the snapshots by byte offset. Segments are rebuilt whole rather than appended to, since every save rewrites its
+ * snapshot with the newest users first, which moves the offset of every line.
+ */
+public class SnapshotIndex
+{
+    public enum Field
+    {
+        NAME("n:"), LOCATION("l:");
+
+        private final String tokenPrefix;
+
+        private Field(String tokenPrefix)
+        {
+            this.tokenPrefix = tokenPrefix;
+        }
+    }
+
+    private static final String INDEX_DIRECTORY = "index";
+
+    private static final String SEGMENT_SUFFIX = ".idx";
+
+    private static final int SEGMENT_MAGIC = 0x54424958;
+
+    private static final int SEGMENT_VERSION = 1;
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final SnapshotIndex INSTANCE = new SnapshotIndex();
+
+    public static SnapshotIndex getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private final Path dataDirectory = Paths.get(ApiConfig.getInstance().dataDirectory);
+
+    private final Path indexDirectory = dataDirectory.resolve(INDEX_DIRECTORY);
+
+    // Only filled once the index is opened for searching; a crawl writes the segments without keeping them.
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    private volatile boolean opened;
+
+    private final ExecutorService indexService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SnapshotIndex()
+    {
+    }
+
+    /**
+     * Rebuilds the segment of a snapshot that was just written, in the background.
+     */
+    public void updateLater(Path snapshotPath)
+    {
+        indexService.submit(() -> {
+            try {
+                update(snapshotPath);
+            } catch (IOException e) {
+                Logging.logError(String.format("%s - indexing failed: %s", snapshotPath.getFileName(), e));
+            }
+        });
+    }
+
+    public void update(Path snapshotPath) throws IOException
+    {
+        build(snapshotPath);
+    }
+
+    private Segment build(Path snapshotPath) throws IOException
+    {
+        Files.createDirectories(indexDirectory);
+        Segment segment = Segment.build(snapshotPath);
+        Path segmentPath = getSegmentPath(snapshotPath);
+        Path tempPath = segmentPath.resolveSibling(segmentPath.getFileName() + ".tmp");
+        segment.write(tempPath);
+        Files.move(tempPath, segmentPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (opened) {
+            segments.put(snapshotPath.getFileName().toString(), segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Loads the segments of the snapshots of all accounts, or only of those whose file name starts with the account
+     * prefix, building those that are missing or older than their snapshot.
+     */
+    public void open(String accountPrefix) throws IOException
+    {
+        opened = true;
+        Files.createDirectories(indexDirectory);
+        for (Path snapshotPath : listSnapshots(accountPrefix)) {
+            String snapshotName = snapshotPath.getFileName().toString();
+            Path segmentPath = getSegmentPath(snapshotPath);
+            Segment loaded = segments.get(snapshotName);
+            if (loaded != null && loaded.isCurrent(snapshotPath)) {
+                continue;
+            }
+            Segment segment = Files.exists(segmentPath) ? Segment.read(segmentPath) : null;
+            if (segment != null && segment.isCurrent(snapshotPath)) {
+                segments.put(snapshotName, segment);
+            } else {
+                Logging.logToConsole("Indexing " + snapshotName);
+                update(snapshotPath);
+            }
+        }
+    }
+
+    /**
+     * Finds the users whose field contains all tokens of the text, across all snapshots or only those whose file
+     * name starts with the account prefix.
+     */
+    public List<SearchResult> findByToken(Field field, String text, String accountPrefix) throws IOException
+    {
+        List<String> queryTokens = tokenize(text);
+        List<SearchResult> results = new ArrayList<>();
+        if (queryTokens.isEmpty()) {
+            return results;
+        }
+        search(accountPrefix, segment -> {
+            int[] matches = null;
+            for (String token : queryTokens) {
+                int[] postings = segment.getPostings(field.tokenPrefix + token);
+                matches = (matches == null) ? postings : intersect(matches, postings);
+                if (matches.length == 0) {
+                    break;
+                }
+            }
+            return matches;
+        }, results);
+        return results;
+    }
+
+    public List<SearchResult> findByScreenNamePrefix(String prefix, String accountPrefix) throws IOException
+    {
+        List<SearchResult> results = new ArrayList<>();
+        search(accountPrefix, segment -> segment.getScreenNamePrefixMatches(prefix.toLowerCase()), results);
+        return results;
+    }
+
+    /**
+     * Reads the users the query matches in every segment. A snapshot rewritten since its segment was loaded is
+     * scanned again into a new segment, and the query is repeated on that one.
+     */
+    private void search(String accountPrefix, Function<Segment, int[]> query, List<SearchResult> results)
+            throws IOException
+    {
+        for (Segment segment : getSegments(accountPrefix)) {
+            while (!segment.readUsers(dataDirectory, query.apply(segment), results)) {
+                Logging.logToConsole("Indexing changed " + segment.snapshotName);
+                segment = build(dataDirectory.resolve(segment.snapshotName));
+            }
+        }
+    }
+
+    private List<Segment> getSegments(String accountPrefix)
+    {
+        List<Segment> matchingSegments = new ArrayList<>();
+        for (Map.Entry<String, Segment> entry : segments.entrySet()) {
+            if (matchesAccount(entry.getKey(), accountPrefix)) {
+                matchingSegments.add(entry.getValue());
+            }
+        }
+        matchingSegments.sort(Comparator.comparing(segment -> segment.snapshotName));
+        return matchingSegments;
+    }
+
+    private static boolean matchesAccount(String snapshotName, String accountPrefix)
+    {
+        return accountPrefix == null || snapshotName.toLowerCase().startsWith(accountPrefix.toLowerCase() + "-");
+    }
+
+    private List<Path> listSnapshots(String accountPrefix) throws IOException
+    {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDirectory)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (!matchesAccount(fileName, accountPrefix)) {
+                    continue;
+                }
+                for (UserQueryType userQueryType : UserQueryType.values()) {
+                    String suffix = String.format(userQueryType.getFilenameFormat(), StringHelper.EMPTY);
+                    if (fileName.endsWith(suffix)) {
+                        snapshots.add(file);
+                    }
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    private Path getSegmentPath(Path snapshotPath)
+    {
+        return indexDirectory.resolve(snapshotPath.getFileName() + SEGMENT_SUFFIX);
+    }
+
+    static List<String> tokenize(String text)
+    {
+        List<String> tokens = new ArrayList<>();
+        if (text != null) {
+            for (String token : TOKEN_SEPARATOR.split(text.toLowerCase())) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static int[] intersect(int[] left, int[] right)
+    {
+        int[] result = new int[Math.min(left.length, right.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < left.length && j < right.length;) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                result[count++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    public static class SearchResult
+    {
+        public final String snapshotName;
+
+        public final User user;
+
+        SearchResult(String snapshotName, User user)
+        {
+            this.snapshotName = snapshotName;
+            this.user = user;
+        }
+    }
+
+    private static class Segment
+    {
+        private static final int[] NO_POSTINGS = new int[0];
+
+        final String snapshotName;
+
+        final long snapshotSize;
+
+        final long snapshotModifiedMillis;
+
+        final long[] lineOffsets;
+
+        final String[] tokens;
+
+        final int[][] postings;
+
+        final String[] screenNames;
+
+        final int[] screenNameOrdinals;
+
+        Segment(String snapshotName, long snapshotSize, long snapshotModifiedMillis, long[] lineOffsets,
+                String[] tokens, int[][] postings, String[] screenNames, int[] screenNameOrdinals)
+        {
+            this.snapshotName = snapshotName;
+            this.snapshotSize = snapshotSize;
+            this.snapshotModifiedMillis = snapshotModifiedMillis;
+            this.lineOffsets = lineOffsets;
+            this.tokens = tokens;
+            this.postings = postings;
+            this.screenNames = screenNames;
+            this.screenNameOrdinals = screenNameOrdinals;
+        }
+
+        static Segment build(Path snapshotPath) throws IOException
+        {
+            long snapshotSize = Files.size(snapshotPath);
+            long snapshotModifiedMillis = Files.getLastModifiedTime(snapshotPath).toMillis();
+            List<Long> lineOffsets = new ArrayList<>();
+            Map<String, List<Integer>> tokenPostings = new TreeMap<>();
+            List<String> lineScreenNames = new ArrayList<>();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshotPath))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long offset = 0;
+                long lineStart = 0;
+                int b;
+                while (true) {
+                    b = in.read();
+                    if (b == '\n' || b == -1) {
+                        String json = new String(line.toByteArray(), HttpHelper.HTTP_REQUEST_CHARSET).trim();
+                        if (!json.isEmpty()) {
+                            int ordinal = lineOffsets.size();
+                            lineOffsets.add(lineStart);
+                            User user = JsonHelper.objectFromJson(json, User.class);
+                            addTokens(tokenPostings, Field.NAME, user.name, ordinal);
+                            addTokens(tokenPostings, Field.LOCATION, user.location, ordinal);
+                            lineScreenNames.add((user.screenName != null) ? user.screenName.toLowerCase() : null);
+                        }
+                        if (b == -1) {
+                            break;
+                        }
+                        line.reset();
+                        lineStart = offset + 1;
+                    } else {
+                        line.write(b);
+                    }
+                    offset++;
+                }
+            }
+            String[] tokens = tokenPostings.keySet().toArray(new String[0]);
+            int[][] postings = new int[tokens.length][];
+            for (int i = 0; i < tokens.length; i++) {
+                postings[i] = tokenPostings.get(tokens[i]).stream().mapToInt(Integer::intValue).toArray();
+            }
+            int[] screenNameOrdinals = IntStream.range(0, lineScreenNames.size())
+                    .filter(ordinal -> lineScreenNames.get(ordinal) != null).boxed()
+                    .sorted(Comparator.comparing(lineScreenNames::get)).mapToInt(Integer::intValue).toArray();
+            String[] screenNames = new String[screenNameOrdinals.length];
+            for (int i = 0; i < screenNames.length; i++) {
+                screenNames[i] = lineScreenNames.get(screenNameOrdinals[i]);
+            }
+            return new Segment(snapshotPath.getFileName().toString(), snapshotSize, snapshotModifiedMillis,
+                    lineOffsets.stream().mapToLong(Long::longValue).toArray(), tokens, postings, screenNames,
+                    screenNameOrdinals);
+        }
+
+        private static void addTokens(Map<String, List<Integer>> tokenPostings, Field field, String text,
+                int ordinal)
+        {
+            for (String token : tokenize(text)) {
+                List<Integer> tokenOrdinals = tokenPostings.computeIfAbsent(field.tokenPrefix + token,
+                        key -> new ArrayList<>());
+                // A token repeated within one user would otherwise show up twice in the posting list.
+                if (tokenOrdinals.isEmpty() || tokenOrdinals.get(tokenOrdinals.size() - 1) != ordinal) {
+                    tokenOrdinals.add(ordinal);
+                }
+            }
+        }
+
+        static Segment read(Path segmentPath) throws IOException
+        {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(segmentPath)))) {
+                if (in.readInt() != SEGMENT_MAGIC || in.readInt() != SEGMENT_VERSION) {
+                    return null;
+                }
+                String snapshotName = in.readUTF();
+                long snapshotSize = in.readLong();
+                long snapshotModifiedMillis = in.readLong();
+                long[] lineOffsets = new long[in.readInt()];
+                for (int i = 0; i < lineOffsets.length; i++) {
+                    lineOffsets[i] = in.readLong();
+                }
+                String[] tokens = new String[in.readInt()];
+                int[][] postings = new int[tokens.length][];
+                for (int i = 0; i < tokens.length; i++) {
+                    tokens[i] = in.readUTF();
+                    postings[i] = new int[in.readInt()];
+                    for (int j = 0; j < postings[i].length; j++) {
+                        postings[i][j] = in.readInt();
+                    }
+                }
+                String[] screenNames = new String[in.readInt()];
+                int[] screenNameOrdinals = new int[screenNames.length];
+                for (int i = 0; i < screenNames.length; i++) {
+                    screenNames[i] = in.readUTF();
+                    screenNameOrdinals[i] = in.readInt();
+                }
+                return new Segment(snapshotName, snapshotSize, snapshotModifiedMillis, lineOffsets, tokens, postings,
+                        screenNames, screenNameOrdinals);
+            }
+        }
+
+        void write(Path segmentPath) throws IOException
+        {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(segmentPath)))) {
+                out.writeInt(SEGMENT_MAGIC);
+                out.writeInt(SEGMENT_VERSION);
+                out.writeUTF(snapshotName);
+                out.writeLong(snapshotSize);
+                out.writeLong(snapshotModifiedMillis);
+                out.writeInt(lineOffsets.length);
+                for (long lineOffset : lineOffsets) {
+                    out.writeLong(lineOffset);
+                }
+                out.writeInt(tokens.length);
+                for (int i = 0; i < tokens.length; i++) {
+                    out.writeUTF(tokens[i]);
+                    out.writeInt(postings[i].length);
+                    for (int ordinal : postings[i]) {
+                        out.writeInt(ordinal);
+                    }
+                }
+                out.writeInt(screenNames.length);
+                for (int i = 0; i < screenNames.length; i++) {
+                    out.writeUTF(screenNames[i]);
+                    out.writeInt(screenNameOrdinals[i]);
+                }
+            }
+        }
+
+        boolean isCurrent(Path snapshotPath) throws IOException
+        {
+            return Files.size(snapshotPath) == snapshotSize
+                    && Files.getLastModifiedTime(snapshotPath).toMillis() == snapshotModifiedMillis;
+        }
+
+        int[] getPostings(String token)
+        {
+            int index = Arrays.binarySearch(tokens, token);
+            return (index >= 0) ? postings[index] : NO_POSTINGS;
+        }
+
+        int[] getScreenNamePrefixMatches(String prefix)
+        {
+            int index = Arrays.binarySearch(screenNames, prefix);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            int end = index;
+            while (end < screenNames.length && screenNames[end].startsWith(prefix)) {
+                end++;
+            }
+            int[] ordinals = Arrays.copyOfRange(screenNameOrdinals, index, end);
+            Arrays.sort(ordinals);
+            return ordinals;
+        }
+
+        /**
+         * @return false, without reading anything, if the snapshot changed since the segment was built.
+         */
+        boolean readUsers(Path dataDirectory, int[] ordinals, List<SearchResult> results) throws IOException
+        {
+            if (ordinals == null || ordinals.length == 0) {
+                return true;
+            }
+            Path snapshotPath = dataDirectory.resolve(snapshotName);
+            try (RandomAccessFile snapshot = new RandomAccessFile(snapshotPath.toFile(), "r")) {
+                // Checked after opening, so a snapshot renamed over this one from now on cannot be read by mistake.
+                if (!isCurrent(snapshotPath)) {
+                    return false;
+                }
+                for (int ordinal : ordinals) {
+                    long lineEnd = (ordinal + 1 < lineOffsets.length) ? lineOffsets[ordinal + 1] : snapshotSize;
+                    byte[] line = new byte[(int) (lineEnd - lineOffsets[ordinal])];
+                    snapshot.seek(lineOffsets[ordinal]);
+                    snapshot.readFully(line);
+                    String json = new String(line, HttpHelper.HTTP_REQUEST_CHARSET);
+                    results.add(new SearchResult(snapshotName, JsonHelper.objectFromJson(json, User.class)));
+                }
+            }
+            return true;
+        }
+    }
+}
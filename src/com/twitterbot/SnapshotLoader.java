@@ -0,0 +1,199 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads the screen names out of many snapshots at once. Every snapshot is split into chunks that end on line
+ * breaks, and the chunks of all snapshots are read in parallel. Only the screen name of every line is parsed; the
+ * names of a chunk go to the consumer once the chunk's buffer is no longer needed, so a consumer that blocks to push
+ * back on the reading holds no more than the names. The consumer is called from several threads and must be
+ * thread-safe.
+ */
+public class SnapshotLoader
+{
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private static final int LINE_BREAK_SEARCH_BYTES = 4 * 1024;
+
+    private static final String SCREEN_NAME_FIELD = "screen_name";
+
+    public static void forEachScreenName(List<Path> snapshotPaths, Consumer<String> consumer) throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute()
+                {
+                    List<SnapshotTask> tasks = new ArrayList<>();
+                    for (Path snapshotPath : snapshotPaths) {
+                        tasks.add(new SnapshotTask(snapshotPath, consumer));
+                    }
+                    invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the screen name of the user on the line, or null if it has none.
+     */
+    static String readScreenName(String line) throws IOException
+    {
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            reader.setLenient(true);
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (SCREEN_NAME_FIELD.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+            return null;
+        }
+    }
+
+    private static class SnapshotTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path snapshotPath;
+
+        private final Consumer<String> consumer;
+
+        SnapshotTask(Path snapshotPath, Consumer<String> consumer)
+        {
+            this.snapshotPath = snapshotPath;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute()
+        {
+            Logging.logToConsole("Get users from file: " + snapshotPath.getFileName());
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                long size = channel.size();
+                List<ChunkTask> chunks = new ArrayList<>();
+                long start = 0;
+                while (start < size) {
+                    long end = findLineStart(channel, Math.min(size, start + CHUNK_BYTES), size);
+                    chunks.add(new ChunkTask(channel, start, end, consumer));
+                    start = end;
+                }
+                invokeAll(chunks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return the start of the first line at or after the position.
+         */
+        private static long findLineStart(FileChannel channel, long position, long size) throws IOException
+        {
+            if (position >= size) {
+                return size;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(LINE_BREAK_SEARCH_BYTES);
+            // A position right after a line break is already a line start.
+            long searchPosition = position - 1;
+            while (searchPosition < size) {
+                buffer.clear();
+                int bytesRead = channel.read(buffer, searchPosition);
+                if (bytesRead <= 0) {
+                    break;
+                }
+                for (int index = 0; index < bytesRead; index++) {
+                    if (buffer.get(index) == '\n') {
+                        return searchPosition + index + 1;
+                    }
+                }
+                searchPosition += bytesRead;
+            }
+            return size;
+        }
+    }
+
+    private static class ChunkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+
+        private final long start;
+
+        private final long end;
+
+        private final Consumer<String> consumer;
+
+        ChunkTask(FileChannel channel, long start, long end, Consumer<String> consumer)
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute()
+        {
+            List<String> screenNames;
+            try {
+                screenNames = readScreenNames();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (String screenName : screenNames) {
+                consumer.accept(screenName);
+            }
+        }
+
+        private List<String> readScreenNames() throws IOException
+        {
+            List<String> screenNames = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            byte[] bytes = buffer.array();
+            int length = buffer.position();
+            int lineStart = 0;
+            for (int index = 0; index <= length; index++) {
+                if (index == length || bytes[index] == '\n') {
+                    String line = new String(bytes, lineStart, index - lineStart, HttpHelper.HTTP_REQUEST_CHARSET);
+                    if (!StringHelper.isNullOrEmpty(line.trim())) {
+                        String screenName = readScreenName(line);
+                        if (screenName != null) {
+                            screenNames.add(screenName);
+                        }
+                    }
+                    lineStart = index + 1;
+                }
+            }
+            return screenNames;
+        }
+    }
+}
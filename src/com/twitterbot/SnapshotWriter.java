@@ -0,0 +1,239 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single writer thread for all snapshot files. Jobs append lines to a temporary file per snapshot and commit it
+ * when done; a commit forces the file to disk and atomically renames it over the previous snapshot. The writer
+ * drains whatever has queued up in one batch, so appends from many jobs turn into sequential writes, and the renames
+ * of all commits in a batch are made durable by a single fsync of their directory before any of them is reported
+ * done. The request queue is bounded, which pushes back on the producers when the disk cannot keep up.
+ */
+public class SnapshotWriter
+{
+    private static final int QUEUE_CAPACITY = 256;
+
+    private static final int MAX_BATCH_SIZE = 64;
+
+    // Workers on several machines may share the data directory, so temporary names carry the process and host.
+    private static final String PROCESS_ID = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^\\w.-]",
+            "_");
+
+    private static final SnapshotWriter INSTANCE = new SnapshotWriter();
+
+    public static SnapshotWriter getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private final BlockingQueue<WriteRequest> requests = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final AtomicLong snapshotSequence = new AtomicLong();
+
+    private SnapshotWriter()
+    {
+        Thread writerThread = new Thread(this::run, "snapshot-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public Snapshot open(Path path)
+    {
+        return open(path, null);
+    }
+
+    /**
+     * @param fence checked right before the snapshot is renamed into place; if it throws, the commit fails and the
+     *            previous snapshot stays. May be null.
+     */
+    public Snapshot open(Path path, CommitFence fence)
+    {
+        Path tempPath = path.resolveSibling(
+                String.format("%s.%s.%d.tmp", path.getFileName(), PROCESS_ID, snapshotSequence.incrementAndGet()));
+        return new Snapshot(path, tempPath, fence);
+    }
+
+    public void append(Snapshot snapshot, List<String> lines) throws InterruptedException
+    {
+        requests.put(new WriteRequest(snapshot, lines, null));
+    }
+
+    public CompletableFuture<Void> commit(Snapshot snapshot) throws InterruptedException
+    {
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        requests.put(new WriteRequest(snapshot, null, committed));
+        return committed;
+    }
+
+    public void abort(Snapshot snapshot) throws InterruptedException
+    {
+        requests.put(new WriteRequest(snapshot, null, null));
+    }
+
+    private void run()
+    {
+        List<WriteRequest> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(requests.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            requests.drainTo(batch, MAX_BATCH_SIZE - 1);
+            List<WriteRequest> commits = new ArrayList<>();
+            for (WriteRequest request : batch) {
+                try {
+                    if (request.lines != null) {
+                        request.snapshot.write(request.lines);
+                    } else if (request.committed != null) {
+                        commits.add(request);
+                    } else {
+                        request.snapshot.discard();
+                    }
+                } catch (IOException e) {
+                    request.snapshot.failure = e;
+                }
+            }
+            Set<Path> directories = new HashSet<>();
+            List<WriteRequest> renamed = new ArrayList<>();
+            for (WriteRequest commit : commits) {
+                try {
+                    commit.snapshot.commit();
+                    directories.add(commit.snapshot.path.toAbsolutePath().getParent());
+                    renamed.add(commit);
+                } catch (IOException e) {
+                    commit.committed.completeExceptionally(e);
+                }
+            }
+            for (Path directory : directories) {
+                syncDirectory(directory);
+            }
+            for (WriteRequest commit : renamed) {
+                commit.committed.complete(null);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Forces the renames in the directory to disk. Some platforms, Windows among them, cannot open a directory for
+     * this; there the renames are as durable as the file system makes them on its own.
+     */
+    private static void syncDirectory(Path directory)
+    {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+        }
+    }
+
+    public interface CommitFence
+    {
+        void check() throws IOException;
+    }
+
+    public static class Snapshot
+    {
+        private final Path path;
+
+        private final Path tempPath;
+
+        private final CommitFence fence;
+
+        private FileChannel channel;
+
+        private IOException failure;
+
+        private Snapshot(Path path, Path tempPath, CommitFence fence)
+        {
+            this.path = path;
+            this.tempPath = tempPath;
+            this.fence = fence;
+        }
+
+        public Path getPath()
+        {
+            return path;
+        }
+
+        private void write(List<String> lines) throws IOException
+        {
+            StringBuilder text = new StringBuilder();
+            for (String line : lines) {
+                text.append(line).append(System.lineSeparator());
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(HttpHelper.HTTP_REQUEST_CHARSET));
+            FileChannel openChannel = getChannel();
+            while (bytes.hasRemaining()) {
+                openChannel.write(bytes);
+            }
+        }
+
+        private void commit() throws IOException
+        {
+            if (failure != null) {
+                discard();
+                throw failure;
+            }
+            getChannel().force(false);
+            channel.close();
+            if (fence != null) {
+                try {
+                    fence.check();
+                } catch (IOException e) {
+                    discard();
+                    throw e;
+                }
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void discard() throws IOException
+        {
+            if (channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(tempPath);
+        }
+
+        private FileChannel getChannel() throws IOException
+        {
+            if (channel == null) {
+                channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            return channel;
+        }
+    }
+
+    private static class WriteRequest
+    {
+        final Snapshot snapshot;
+
+        final List<String> lines;
+
+        final CompletableFuture<Void> committed;
+
+        WriteRequest(Snapshot snapshot, List<String> lines, CompletableFuture<Void> committed)
+        {
+            this.snapshot = snapshot;
+            this.lines = lines;
+            this.committed = committed;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.gson.annotations.SerializedName;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the state of a running bot as JSON on the loopback interface: the user query jobs, the executors, the
+ * rate limit buckets and the recent errors. Requests are handled on a single daemon thread and the response is
+ * rebuilt at most once per second, so polling the endpoint costs the crawl next to nothing.
+ */
+public class StatusServer implements AutoCloseable
+{
+    private static final String STATUS_PATH = "/status";
+
+    private static final long RESPONSE_MAX_AGE_MILLISECONDS = 1000;
+
+    private static final String CONTENT_TYPE = "application/json; charset=" + HttpHelper.HTTP_REQUEST_CHARSET.name();
+
+    private final HttpServer server;
+
+    private final Map<String, ExecutorService> executors;
+
+    private final ExecutorService requestService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "status-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private byte[] response;
+
+    private long responseMillis;
+
+    /**
+     * @param executors
+     *            the executors to report, by name.
+     */
+    public StatusServer(int port, Map<String, ExecutorService> executors) throws IOException
+    {
+        this.executors = new LinkedHashMap<>(executors);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(STATUS_PATH, this::handle);
+        server.setExecutor(requestService);
+    }
+
+    public void start()
+    {
+        server.start();
+        Logging.logToConsole(String.format("Status at http://localhost:%d%s", server.getAddress().getPort(),
+                STATUS_PATH));
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        requestService.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            long nowMillis = System.currentTimeMillis();
+            if (response == null || nowMillis - responseMillis >= RESPONSE_MAX_AGE_MILLISECONDS) {
+                response = JsonHelper.objectToJson(createStatus(nowMillis)).getBytes(HttpHelper.HTTP_REQUEST_CHARSET);
+                responseMillis = nowMillis;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Status createStatus(long nowMillis) throws IOException
+    {
+        Status status = new Status();
+        status.timeMillis = nowMillis;
+        for (JobProgress job : JobProgress.getAll()) {
+            status.jobs.add(new JobStatus(job));
+        }
+        for (Map.Entry<String, ExecutorService> executor : executors.entrySet()) {
+            if (executor.getValue() instanceof ThreadPoolExecutor) {
+                status.executors.add(new ExecutorStatus(executor.getKey(), (ThreadPoolExecutor) executor.getValue()));
+            }
+        }
+        for (RateLimitBucket bucket : RateLimitRegistry.getInstance().getBuckets()) {
+            status.rateLimits.add(new RateLimitBucketStatus(bucket));
+        }
+        status.recentErrors = Logging.getRecentErrors();
+        return status;
+    }
+
+    private static class Status
+    {
+        @SerializedName("time_ms")
+        long timeMillis;
+
+        @SerializedName("jobs")
+        final List<JobStatus> jobs = new ArrayList<>();
+
+        @SerializedName("executors")
+        final List<ExecutorStatus> executors = new ArrayList<>();
+
+        @SerializedName("rate_limits")
+        final List<RateLimitBucketStatus> rateLimits = new ArrayList<>();
+
+        @SerializedName("recent_errors")
+        List<String> recentErrors;
+    }
+
+    private static class JobStatus
+    {
+        @SerializedName("screen_name")
+        final String screenName;
+
+        @SerializedName("type")
+        final String type;
+
+        @SerializedName("state")
+        final String state;
+
+        @SerializedName("estimated_pages")
+        final int estimatedPages;
+
+        @SerializedName("pages_fetched")
+        final int pagesFetched;
+
+        @SerializedName("users_fetched")
+        final long usersFetched;
+
+        @SerializedName("cursor")
+        final long cursor;
+
+        @SerializedName("waiting_for_rate_limit")
+        final boolean waitingForRateLimit;
+
+        @SerializedName("rate_limit_wait_ms")
+        final long rateLimitWaitMillis;
+
+        JobStatus(JobProgress job)
+        {
+            screenName = job.screenName;
+            type = job.userQueryType.toString();
+            state = job.getState().toString();
+            estimatedPages = job.getEstimatedPages();
+            pagesFetched = job.getPagesFetched();
+            usersFetched = job.getUsersFetched();
+            cursor = job.getCursor();
+            waitingForRateLimit = job.isWaitingForRateLimit();
+            rateLimitWaitMillis = job.getRateLimitWaitMillis();
+        }
+    }
+
+    private static class ExecutorStatus
+    {
+        @SerializedName("name")
+        final String name;
+
+        @SerializedName("threads")
+        final int threads;
+
+        @SerializedName("active")
+        final int active;
+
+        @SerializedName("queued")
+        final int queued;
+
+        @SerializedName("completed")
+        final long completed;
+
+        ExecutorStatus(String name, ThreadPoolExecutor executor)
+        {
+            this.name = name;
+            threads = executor.getPoolSize();
+            active = executor.getActiveCount();
+            queued = executor.getQueue().size();
+            completed = executor.getCompletedTaskCount();
+        }
+    }
+
+    private static class RateLimitBucketStatus
+    {
+        @SerializedName("name")
+        final String name;
+
+        @SerializedName("limit")
+        final int limit;
+
+        @SerializedName("remaining")
+        final int remaining;
+
+        @SerializedName("reset_ms")
+        final long resetMillis;
+
+        @SerializedName("waiting_threads")
+        final int waitingThreads;
+
+        RateLimitBucketStatus(RateLimitBucket bucket) throws IOException
+        {
+            name = bucket.getName();
+            limit = bucket.getLimit();
+            remaining = bucket.getRemaining();
+            resetMillis = bucket.getWindowResetMillis();
+            waitingThreads = bucket.getWaitingThreads();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.AuthenticationHelper.ApplicationOnlyAuthResponse;
+
+/**
+ * Ingests the tweets of an account's timeline, or the tweets mentioning it, into append-only segment files under
+ * the timelines subdirectory of the data directory. Per account and timeline, a state file keeps the newest tweet
+ * id seen, so a refresh only asks for tweets after it ({@code since_id}), and the oldest tweet id seen, so a
+ * backfill pages further into the history ({@code max_id}). Tweets are appended before the state is saved; a crash
+ * in between means the tweets are fetched again and appear twice, never that tweets are skipped.
+ */
+public class TimelineIngester
+{
+    private static final String TIMELINES_DIRECTORY = "timelines";
+
+    private static final long SEGMENT_MAX_BYTES = 64L * 1024 * 1024;
+
+    public enum TimelineType implements RateLimitedEndpoint
+    {
+        // The largest page each endpoint returns: 200 tweets for timelines, 100 for searches.
+        TIMELINE(ApiConfig.getInstance().twitterApiUrl + "statuses/user_timeline.json",
+                "screen_name=%s&count=%d&include_rts=true", 200, 1500, "statuses", "/statuses/user_timeline"),
+        MENTIONS(ApiConfig.getInstance().twitterApiUrl + "search/tweets.json",
+                "q=%%40%s&count=%d&result_type=recent", 100, 450, "search", "/search/tweets");
+
+        private final String url;
+
+        private final String queryFormat;
+
+        private final int tweetsPerPage;
+
+        private final int requestsPer15MinuteWindow;
+
+        private final String rateLimitResource;
+
+        private final String rateLimitEndpoint;
+
+        private TimelineType(String url, String queryFormat, int tweetsPerPage, int requestsPer15MinuteWindow,
+                String rateLimitResource, String rateLimitEndpoint)
+        {
+            this.url = url;
+            this.queryFormat = queryFormat;
+            this.tweetsPerPage = tweetsPerPage;
+            this.requestsPer15MinuteWindow = requestsPer15MinuteWindow;
+            this.rateLimitResource = rateLimitResource;
+            this.rateLimitEndpoint = rateLimitEndpoint;
+        }
+
+        @Override
+        public String getRateLimitFamily()
+        {
+            return name().toLowerCase();
+        }
+
+        @Override
+        public int getRequestsPer15MinuteWindow()
+        {
+            return requestsPer15MinuteWindow;
+        }
+
+        @Override
+        public String getRateLimitResource()
+        {
+            return rateLimitResource;
+        }
+
+        @Override
+        public String getRateLimitEndpoint()
+        {
+            return rateLimitEndpoint;
+        }
+    }
+
+    private final ApplicationOnlyAuthResponse authResponse;
+
+    private final Path directory;
+
+    public TimelineIngester(ApplicationOnlyAuthResponse authResponse) throws IOException
+    {
+        this.authResponse = authResponse;
+        this.directory = Paths.get(ApiConfig.getInstance().dataDirectory, TIMELINES_DIRECTORY);
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Fetches the tweets newer than the last refresh, paging back until the previous newest tweet. The first
+     * refresh of a timeline only fetches the newest page; older tweets are left to {@link #backfill}.
+     *
+     * @return the number of new tweets.
+     */
+    public int refresh(String screenName, TimelineType timelineType) throws IOException, InterruptedException
+    {
+        TimelineState state = loadState(screenName, timelineType);
+        List<JsonObject> tweets = new ArrayList<>();
+        long maxId = 0;
+        do {
+            // An error ends the refresh before anything is appended, so the tweets between the previous newest tweet
+            // and the pages fetched so far are never skipped.
+            List<JsonObject> page = fetchPage(screenName, timelineType, state.sinceId, maxId);
+            if (page.isEmpty()) {
+                break;
+            }
+            tweets.addAll(page);
+            maxId = getId(page.get(page.size() - 1)) - 1;
+            // A short page is the last one; asking for the next would only return an empty page.
+            if (page.size() < timelineType.tweetsPerPage) {
+                break;
+            }
+        } while (state.sinceId != 0);
+        if (!tweets.isEmpty()) {
+            appendToSegment(screenName, timelineType, state, tweets);
+            state.sinceId = Math.max(state.sinceId, getId(tweets.get(0)));
+            if (state.oldestId == 0) {
+                state.oldestId = getId(tweets.get(tweets.size() - 1));
+            }
+            saveState(screenName, timelineType, state);
+        }
+        Logging.logToConsole(String.format("%s %s - %d new tweets", timelineType, screenName, tweets.size()));
+        return tweets.size();
+    }
+
+    /**
+     * Fetches up to the given number of pages of tweets older than the oldest tweet ingested so far.
+     *
+     * @return the number of tweets fetched.
+     */
+    public int backfill(String screenName, TimelineType timelineType, int maxPages)
+            throws IOException, InterruptedException
+    {
+        TimelineState state = loadState(screenName, timelineType);
+        if (state.oldestId == 0 || state.backfillComplete) {
+            return 0;
+        }
+        int tweetCount = 0;
+        for (int pageNumber = 0; pageNumber < maxPages; pageNumber++) {
+            // Tweet ids start at 1, so there is nothing before a tweet with id 1.
+            List<JsonObject> page = (state.oldestId > 1)
+                    ? fetchPage(screenName, timelineType, 0, state.oldestId - 1)
+                    : Collections.<JsonObject> emptyList();
+            if (page.isEmpty()) {
+                state.backfillComplete = true;
+            } else {
+                appendToSegment(screenName, timelineType, state, page);
+                state.oldestId = getId(page.get(page.size() - 1));
+                tweetCount += page.size();
+            }
+            saveState(screenName, timelineType, state);
+            if (state.backfillComplete) {
+                break;
+            }
+        }
+        Logging.logToConsole(String.format("%s %s - %d older tweets%s", timelineType, screenName, tweetCount,
+                state.backfillComplete ? ", history complete" : StringHelper.EMPTY));
+        return tweetCount;
+    }
+
+    /**
+     * @return the tweets of the page, newest first; empty only if the API returned an empty page.
+     * @throws IOException
+     *             if the request failed or the response holds no tweets array.
+     */
+    private List<JsonObject> fetchPage(String screenName, TimelineType timelineType, long sinceId, long maxId)
+            throws IOException, InterruptedException
+    {
+        int currentRequestNumber = RateLimitRegistry.getInstance().get(timelineType).acquire();
+        Logging.logToConsole(String.format("%s %s - current request number %d", timelineType, screenName,
+                currentRequestNumber));
+        StringBuilder url = new StringBuilder(timelineType.url).append('?')
+                .append(String.format(timelineType.queryFormat, encode(screenName), timelineType.tweetsPerPage));
+        if (sinceId > 0) {
+            url.append("&since_id=").append(sinceId);
+        }
+        if (maxId > 0) {
+            url.append("&max_id=").append(maxId);
+        }
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = HttpHelper.createUrlConnection(url.toString(), HttpHelper.createGetDetails(authResponse));
+            String responseJson = HttpHelper.getResponseStringFromUrlConnection(urlConnection);
+            if (StringHelper.isNullOrEmpty(responseJson)) {
+                throw new IOException(String.format("%s %s - request failed", timelineType, screenName));
+            }
+            JsonElement response = new JsonParser().parse(responseJson);
+            // The user timeline is an array; search results wrap the tweets in an object.
+            JsonArray statuses = null;
+            if (response.isJsonArray()) {
+                statuses = response.getAsJsonArray();
+            } else if (response.isJsonObject() && response.getAsJsonObject().get("statuses") instanceof JsonArray) {
+                statuses = response.getAsJsonObject().getAsJsonArray("statuses");
+            }
+            if (statuses == null) {
+                throw new IOException(String.format("%s %s - unexpected response: %s", timelineType, screenName,
+                        responseJson));
+            }
+            List<JsonObject> tweets = new ArrayList<>();
+            for (JsonElement status : statuses) {
+                tweets.add(status.getAsJsonObject());
+            }
+            tweets.sort(Comparator.comparingLong(TimelineIngester::getId).reversed());
+            return tweets;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Appends the tweets, oldest first, to the current segment of the timeline, starting a new segment once the
+     * current one is full.
+     */
+    private void appendToSegment(String screenName, TimelineType timelineType, TimelineState state,
+            List<JsonObject> tweets) throws IOException
+    {
+        Path segmentPath = getSegmentPath(screenName, timelineType, state.segmentNumber);
+        if (Files.exists(segmentPath) && Files.size(segmentPath) >= SEGMENT_MAX_BYTES) {
+            state.segmentNumber++;
+            segmentPath = getSegmentPath(screenName, timelineType, state.segmentNumber);
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int index = tweets.size() - 1; index >= 0; index--) {
+            lines.append(tweets.get(index).toString()).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(HttpHelper.HTTP_REQUEST_CHARSET));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    private Path getSegmentPath(String screenName, TimelineType timelineType, int segmentNumber)
+    {
+        return directory.resolve(String.format("%s-%s-%05d.txt", screenName, timelineType.name().toLowerCase(),
+                segmentNumber));
+    }
+
+    private Path getStatePath(String screenName, TimelineType timelineType)
+    {
+        return directory.resolve(String.format("%s-%s.state", screenName, timelineType.name().toLowerCase()));
+    }
+
+    private TimelineState loadState(String screenName, TimelineType timelineType) throws IOException
+    {
+        Path statePath = getStatePath(screenName, timelineType);
+        if (!Files.exists(statePath)) {
+            return new TimelineState();
+        }
+        return JsonHelper.objectFromJson(new String(Files.readAllBytes(statePath), HttpHelper.HTTP_REQUEST_CHARSET),
+                TimelineState.class);
+    }
+
+    private void saveState(String screenName, TimelineType timelineType, TimelineState state) throws IOException
+    {
+        Path statePath = getStatePath(screenName, timelineType);
+        Path tempPath = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+        Files.write(tempPath, Collections.singletonList(JsonHelper.objectToJson(state)),
+                HttpHelper.HTTP_REQUEST_CHARSET);
+        Files.move(tempPath, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long getId(JsonObject tweet)
+    {
+        return tweet.get("id").getAsLong();
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode(value, HttpHelper.HTTP_REQUEST_CHARSET.displayName());
+    }
+
+    private static class TimelineState
+    {
+        @SerializedName("since_id")
+        long sinceId;
+
+        @SerializedName("oldest_id")
+        long oldestId;
+
+        @SerializedName("backfill_complete")
+        boolean backfillComplete;
+
+        @SerializedName("segment_number")
+        int segmentNumber;
+    }
+}
@@ -0,0 +1,149 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+import com.twitterbot.ApiHelper.ApiConfig;
+import com.twitterbot.ApiHelper.UserQueryType;
+
+public class TrackedAccountRegistry
+{
+    private static final String DAEMON_DIRECTORY = "daemon";
+
+    private static final String REGISTRY_FILENAME = "registry.txt";
+
+    private final Path path;
+
+    private final Map<String, TrackedAccount> accounts = new LinkedHashMap<>();
+
+    public static TrackedAccountRegistry load() throws IOException
+    {
+        Path directory = Files.createDirectories(Paths.get(ApiConfig.getInstance().dataDirectory, DAEMON_DIRECTORY));
+        TrackedAccountRegistry registry = new TrackedAccountRegistry(directory.resolve(REGISTRY_FILENAME));
+        if (Files.exists(registry.path)) {
+            for (String line : Files.readAllLines(registry.path, HttpHelper.HTTP_REQUEST_CHARSET)) {
+                if (!StringHelper.isNullOrEmpty(line)) {
+                    TrackedAccount account = JsonHelper.objectFromJson(line, TrackedAccount.class);
+                    registry.accounts.put(account.getKey(), account);
+                }
+            }
+        }
+        return registry;
+    }
+
+    private TrackedAccountRegistry(Path path)
+    {
+        this.path = path;
+    }
+
+    public synchronized void track(String screenName, UserQueryType userQueryType, int refreshIntervalMinutes)
+    {
+        TrackedAccount account = new TrackedAccount(screenName, userQueryType, refreshIntervalMinutes);
+        TrackedAccount existing = accounts.get(account.getKey());
+        if (existing != null) {
+            existing.refreshIntervalMinutes = refreshIntervalMinutes;
+        } else {
+            accounts.put(account.getKey(), account);
+        }
+    }
+
+    public synchronized void untrack(String screenName, UserQueryType userQueryType)
+    {
+        accounts.remove(new TrackedAccount(screenName, userQueryType, 0).getKey());
+    }
+
+    public synchronized List<TrackedAccount> getAccounts()
+    {
+        return new ArrayList<>(accounts.values());
+    }
+
+    public synchronized void recordRefresh(TrackedAccount account, long refreshedAtMillis, int snapshotSize)
+    {
+        account.lastRefreshMillis = refreshedAtMillis;
+        account.lastSnapshotSize = snapshotSize;
+        account.failedAttempts = 0;
+        account.retryAtMillis = 0;
+    }
+
+    /**
+     * Records a failed refresh without touching the last refresh, so the account stays due and is retried once the
+     * retry time has passed.
+     */
+    public synchronized void recordFailure(TrackedAccount account, long retryAtMillis)
+    {
+        account.retryAtMillis = retryAtMillis;
+        account.failedAttempts++;
+    }
+
+    /**
+     * Writes the registry to a temporary file and atomically moves it over the previous one, so a crash never
+     * leaves a partially written registry behind.
+     */
+    public synchronized void save() throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for (TrackedAccount account : accounts.values()) {
+            lines.add(JsonHelper.objectToJson(account));
+        }
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tempPath, lines, HttpHelper.HTTP_REQUEST_CHARSET);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static class TrackedAccount
+    {
+        @SerializedName("screen_name")
+        public String screenName;
+
+        @SerializedName("query_type")
+        public UserQueryType userQueryType;
+
+        @SerializedName("refresh_interval_minutes")
+        public int refreshIntervalMinutes;
+
+        @SerializedName("last_refresh_millis")
+        public long lastRefreshMillis;
+
+        @SerializedName("last_snapshot_size")
+        public int lastSnapshotSize;
+
+        @SerializedName("failed_attempts")
+        public int failedAttempts;
+
+        @SerializedName("retry_at_millis")
+        public long retryAtMillis;
+
+        TrackedAccount(String screenName, UserQueryType userQueryType, int refreshIntervalMinutes)
+        {
+            this.screenName = screenName;
+            this.userQueryType = userQueryType;
+            this.refreshIntervalMinutes = refreshIntervalMinutes;
+        }
+
+        String getKey()
+        {
+            return String.format("%s/%s", userQueryType, screenName.toLowerCase());
+        }
+
+        /**
+         * Fraction of the refresh interval that has passed since the last refresh; 1.0 means the account is due.
+         */
+        double getStaleness(long nowMillis)
+        {
+            return (double) (nowMillis - lastRefreshMillis) / getIntervalMillis();
+        }
+
+        long getIntervalMillis()
+        {
+            return Math.max(1, refreshIntervalMinutes) * 60L * 1000L;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.twitterbot;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongFunction;
+
+import com.twitterbot.ApiHelper.UserQueryResponse;
+
+/**
+ * Iterates over the pages of a cursored user query. Every page is parsed as soon as it arrives, and the next page is
+ * requested with the {@code next_cursor} of the parsed page only. If prefetching is on and the rate limit window
+ * still has a request left, the next page is requested in the background while the caller saves the current one.
+ * The caller must close the iterator, which drops a prefetch still in flight.
+ */
+public class UserPageIterator implements AutoCloseable
+{
+    private static final ExecutorService PREFETCH_SERVICE = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "page-prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String screenName;
+
+    private final LongFunction<String> pageFetcher;
+
+    private final RateLimitBucket rateLimitBucket;
+
+    private final boolean prefetch;
+
+    private final JobProgress progress;
+
+    private CompletableFuture<Page> prefetchedPage;
+
+    private long nextCursor = -1;
+
+    private boolean endOfPages;
+
+    public UserPageIterator(String screenName, LongFunction<String> pageFetcher, RateLimitBucket rateLimitBucket,
+            boolean prefetch, JobProgress progress)
+    {
+        this.screenName = screenName;
+        this.pageFetcher = pageFetcher;
+        this.rateLimitBucket = rateLimitBucket;
+        this.prefetch = prefetch;
+        this.progress = progress;
+    }
+
+    public boolean hasNext()
+    {
+        return !endOfPages;
+    }
+
+    public Page next() throws InterruptedException, IOException
+    {
+        Page page;
+        if (prefetchedPage != null) {
+            try {
+                page = prefetchedPage.join();
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                prefetchedPage = null;
+            }
+        } else {
+            Logging.logToConsole(screenName + " - getting token");
+            int requestNumber;
+            progress.startRateLimitWait();
+            try {
+                requestNumber = rateLimitBucket.acquire();
+            } finally {
+                progress.stopRateLimitWait();
+            }
+            try {
+                page = fetch(nextCursor, requestNumber);
+            } catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+        }
+        nextCursor = page.nextCursor;
+        endOfPages = nextCursor == 0;
+        if (prefetch && !endOfPages) {
+            int requestNumber = rateLimitBucket.tryAcquire();
+            if (requestNumber > 0) {
+                long cursor = nextCursor;
+                prefetchedPage = CompletableFuture.supplyAsync(() -> fetch(cursor, requestNumber), PREFETCH_SERVICE);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Drops the prefetched page, if any. A request already sent still completes in the background, but its result is
+     * ignored.
+     */
+    @Override
+    public void close()
+    {
+        if (prefetchedPage != null) {
+            prefetchedPage.cancel(true);
+            prefetchedPage = null;
+        }
+        endOfPages = true;
+    }
+
+    private Page fetch(long cursor, int requestNumber)
+    {
+        Logging.logToConsole(String.format("%s - current request number %d", screenName, requestNumber));
+        Logging.logToConsole(screenName + " - running query");
+        long startMillis = System.currentTimeMillis();
+        String responseJson = pageFetcher.apply(cursor);
+        progress.recordRequest(System.currentTimeMillis() - startMillis);
+        UserQueryResponse result = StringHelper.isNullOrEmpty(responseJson) ? null
+                : JsonHelper.objectFromJson(responseJson, UserQueryResponse.class);
+        return new Page(responseJson, result);
+    }
+
+    public static class Page
+    {
+        public final String responseJson;
+
+        // Null for a failed request or a response that is not a user list.
+        final UserQueryResponse result;
+
+        // 0, ending the paging, unless the page parsed as a user list with more pages after it.
+        public final long nextCursor;
+
+        Page(String responseJson, UserQueryResponse result)
+        {
+            this.responseJson = responseJson;
+            this.result = result;
+            this.nextCursor = (result != null && result.users != null) ? result.nextCursor : 0;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.twitterbot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Visited set for graph crawls. The Bloom filter answers most lookups for unseen ids from the heap; only possible
+ * hits fall through to the on-disk id set.
+ */
+public class VisitedIdSet implements Closeable
+{
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final BloomFilter bloomFilter;
+
+    private final DiskIdSet diskIdSet;
+
+    public VisitedIdSet(Path path, long expectedIds) throws IOException
+    {
+        this.bloomFilter = new BloomFilter(expectedIds, FALSE_POSITIVE_RATE);
+        this.diskIdSet = new DiskIdSet(path, expectedIds);
+    }
+
+    /**
+     * @return true if the id had not been visited before this call.
+     */
+    public synchronized boolean markVisited(long id) throws IOException
+    {
+        if (bloomFilter.put(id)) {
+            return diskIdSet.add(id);
+        }
+        if (diskIdSet.contains(id)) {
+            return false;
+        }
+        return diskIdSet.add(id);
+    }
+
+    public synchronized long size()
+    {
+        return diskIdSet.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        diskIdSet.close();
+    }
+}